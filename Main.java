@@ -1,25 +1,106 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 import server.http.HttpServer;
+import server.log.Log;
+import server.reactor.Reactor;
+import server.reactor.Reactor.Mode;
+import server.websocket.Enums.SlowConsumerPolicy;
 import server.websocket.WebSocketServer;
 
 class Server {
+    // Options:
+    //   --mode=event-loop|platform|virtual       how connections are served (default event-loop)
+    //   --max-connections=N                      live connections allowed per server
+    //   --journal=DIR|off                        where games are journaled (default journal)
+    //   --slow-consumer=resync|close|try-again   what happens to a client that falls behind (default resync)
+    //   --queue-limit=N                          frames a client may have waiting before it is a slow consumer (default 256)
+    //   --log-level=debug|info|warn|error        least severe messages logged (default info)
+    //   --log-file=PATH                          log to PATH instead of stdout
     public static void main(String[] args) {
+        Mode mode = Mode.EVENT_LOOP;
+        int maxConnections = Integer.MAX_VALUE;
+        Path journal = Paths.get("journal");
+        SlowConsumerPolicy policy = SlowConsumerPolicy.RESYNC;
+        int queueLimit = 256;
+
+        for (String arg : args) {
+            if (arg.startsWith("--mode=")) {
+                mode = parseMode(arg.substring(7));
+            } else if (arg.startsWith("--max-connections=")) {
+                maxConnections = Integer.parseInt(arg.substring(18));
+            } else if (arg.startsWith("--journal=")) {
+                String dir = arg.substring(10);
+                journal = dir.equals("off") ? null : Paths.get(dir);
+            } else if (arg.startsWith("--slow-consumer=")) {
+                policy = parsePolicy(arg.substring(16));
+            } else if (arg.startsWith("--queue-limit=")) {
+                queueLimit = Integer.parseInt(arg.substring(14));
+            } else if (arg.startsWith("--log-level=")) {
+                Log.setLevel(parseLevel(arg.substring(12)));
+            } else if (arg.startsWith("--log-file=")) {
+                try {
+                    Log.toFile(Paths.get(arg.substring(11)));
+                } catch (IOException e) {
+                    Log.error("Could not open log file, logging to stdout: {}", e);
+                }
+            } else {
+                Log.warn("Unknown option {}", arg);
+            }
+        }
 
+        // One listener: the http server serves the client and the game exports, and upgrades /game
+        // connections in place to the websocket server, which only keeps the games
         try {
-            HttpServer httpServer = new HttpServer(4221);
+            WebSocketServer webSocketServer = new WebSocketServer(new WebSocketServer.Options()
+                .journal(journal)
+                .slowConsumers(policy, queueLimit));
+            webSocketServer.registerMetrics();
+            HttpServer httpServer = new HttpServer(4221, new Reactor.Options().mode(mode).maxConnections(maxConnections),
+                webSocketServer.export(), webSocketServer.upgrade());
             Thread thread1 = new Thread(httpServer);
             thread1.start();
+            Log.info("Server has started on 127.0.0.1:4221");
         } catch(Exception e) {
-            System.err.println("Could not start http server");
-            System.err.println(e);
+            Log.error("Could not start server: {}", e);
         }
+    }
 
+    private static Mode parseMode(String name) {
+        switch (name) {
+            case "platform":
+                return Mode.PLATFORM_THREADS;
+            case "virtual":
+                return Mode.VIRTUAL_THREADS;
+            case "event-loop":
+                return Mode.EVENT_LOOP;
+            default:
+                Log.warn("Unknown mode {}, using event-loop", name);
+                return Mode.EVENT_LOOP;
+        }
+    }
+
+    private static SlowConsumerPolicy parsePolicy(String name) {
+        switch (name) {
+            case "resync":
+                return SlowConsumerPolicy.RESYNC;
+            case "close":
+                return SlowConsumerPolicy.CLOSE_POLICY;
+            case "try-again":
+                return SlowConsumerPolicy.CLOSE_TRY_AGAIN;
+            default:
+                Log.warn("Unknown slow consumer policy {}, using resync", name);
+                return SlowConsumerPolicy.RESYNC;
+        }
+    }
+
+    private static Log.Level parseLevel(String name) {
         try {
-            WebSocketServer webSocketServer = new WebSocketServer(4220);
-            Thread thread2 = new Thread(webSocketServer);
-            thread2.start();
-        } catch(Exception e) {
-            System.err.println("Could not start websocket server");
-            System.err.println(e);
+            return Log.Level.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.warn("Unknown log level {}, using info", name);
+            return Log.Level.INFO;
         }
     }
 }
@@ -0,0 +1,90 @@
+package server.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Request heads as a browser sends them: a page load and a websocket upgrade.
+// The parser is reused across requests as a connection's handler reuses it.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+    final private static String PAGE = "GET /chessboard.js HTTP/1.1\r\n"
+        + "Host: localhost:4221\r\n"
+        + "Connection: keep-alive\r\n"
+        + "sec-ch-ua: \"Chromium\";v=\"124\", \"Google Chrome\";v=\"124\", \"Not-A.Brand\";v=\"99\"\r\n"
+        + "sec-ch-ua-mobile: ?0\r\n"
+        + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36\r\n"
+        + "sec-ch-ua-platform: \"Linux\"\r\n"
+        + "Accept: */*\r\n"
+        + "Sec-Fetch-Site: same-origin\r\n"
+        + "Sec-Fetch-Mode: no-cors\r\n"
+        + "Sec-Fetch-Dest: script\r\n"
+        + "Referer: http://localhost:4221/\r\n"
+        + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+        + "Accept-Language: en-GB,en-US;q=0.9,en;q=0.8\r\n"
+        + "If-None-Match: \"1a2b3c4d-5e6f\"\r\n"
+        + "If-Modified-Since: Sat, 17 Oct 2026 09:12:44 GMT\r\n"
+        + "\r\n";
+    final private static String UPGRADE = "GET /game/abc123 HTTP/1.1\r\n"
+        + "Host: localhost:4221\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Pragma: no-cache\r\n"
+        + "Cache-Control: no-cache\r\n"
+        + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Origin: http://localhost:4221\r\n"
+        + "Sec-WebSocket-Version: 13\r\n"
+        + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+        + "Accept-Language: en-GB,en-US;q=0.9,en;q=0.8\r\n"
+        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+        + "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n"
+        + "Sec-WebSocket-Protocol: jess-binary-v1\r\n"
+        + "\r\n";
+
+    final private RequestParser parser = new RequestParser();
+    private ByteBuffer page;
+    private ByteBuffer upgrade;
+
+    @Setup
+    public void setup() {
+        page = ByteBuffer.wrap(PAGE.getBytes(StandardCharsets.US_ASCII));
+        upgrade = ByteBuffer.wrap(UPGRADE.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    public RequestParser.Result parsePage() {
+        page.rewind();
+        return parser.parse(page);
+    }
+
+    @Benchmark
+    public RequestParser.Result parseUpgrade() {
+        upgrade.rewind();
+        return parser.parse(upgrade);
+    }
+
+    // Parsing plus the lookups serving a static asset makes
+    @Benchmark
+    public boolean parsePageAndHeaders() {
+        page.rewind();
+        parser.parse(page);
+        Request req = parser.request();
+        return req.contains("Accept-Encoding", "gzip") && req.get("If-None-Match") != null && req.methodIs("GET");
+    }
+}
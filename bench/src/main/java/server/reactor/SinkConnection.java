@@ -0,0 +1,17 @@
+package server.reactor;
+
+// A connection with no socket for benchmarks: whatever is queued is dropped, and pooled buffers
+// given back, as soon as it is queued, as if the client read everything at once
+public class SinkConnection extends Connection {
+    public SinkConnection(Handler handler) {
+        super(null, handler);
+    }
+
+    void scheduleFlush() {
+        releaseQueued();
+    }
+
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,67 @@
+package server.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.chess.Move;
+import server.http.RequestParser;
+import server.reactor.SinkConnection;
+import server.websocket.Enums.SlowConsumerPolicy;
+
+// One move going out to a room of text or binary clients, each upgraded on a connection that swallows what it is sent,
+// so what is measured is encoding once and queueing a view per member
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    final private static String UPGRADE = "GET /game/bench HTTP/1.1\r\nHost: localhost:4221\r\n"
+        + "Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+        + "Sec-WebSocket-Version: 13\r\n";
+    final private static int MOVE = Move.parse("e2e4");
+
+    @Param({"10", "100", "1000"})
+    int clients;
+
+    // Whether the clients negotiated the binary subprotocol
+    @Param({"false", "true"})
+    boolean binary;
+
+    private Room room;
+
+    @Setup
+    public void setup() {
+        RequestParser parser = new RequestParser();
+        String head = UPGRADE + (binary ? "Sec-WebSocket-Protocol: " + BinaryProtocol.NAME + "\r\n" : "") + "\r\n";
+        parser.parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+
+        RoomRegistry rooms = new RoomRegistry(null);
+        for (int i = 0; i < clients; i++) {
+            WebSocketHandler client = new WebSocketHandler(i, rooms, SlowConsumerPolicy.RESYNC, 256, -1);
+            client.open(new SinkConnection(client), parser.request(), "bench");
+        }
+        room = rooms.get("bench");
+    }
+
+    @Benchmark
+    public void broadcast() {
+        synchronized (room.getLog()) {
+            room.broadcastMove(0, MOVE);
+        }
+    }
+}
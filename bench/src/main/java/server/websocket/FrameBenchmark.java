@@ -0,0 +1,106 @@
+package server.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.websocket.Enums.FrameType;
+
+// Encoding server frames and decoding masked client frames, one payload size per length encoding:
+// 7-bit (under 126), 16-bit and 64-bit
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+    @Param({"100", "4096", "70000"})
+    int size;
+
+    private byte[] payload;
+    private ByteBuffer out;
+    private ByteBuffer masked;
+    private FrameDecoder decoder;
+    final private Sink listener = new Sink();
+
+    @Setup
+    public void setup() {
+        payload = new byte[size];
+        new Random(size).nextBytes(payload);
+        out = ByteBuffer.allocateDirect(size + 16);
+        masked = ByteBuffer.wrap(masked(payload));
+        decoder = new FrameDecoder(1024 * 1024);
+    }
+
+    // Unicast path: straight into a direct buffer
+    @Benchmark
+    public ByteBuffer encode() {
+        out.clear();
+        new Frame(payload, FrameType.BINARY, false).writeTo(out);
+        return out;
+    }
+
+    // Broadcast path: a heap array shared by the room
+    @Benchmark
+    public byte[] encodeBytes() {
+        return new Frame(payload, FrameType.BINARY, false).getBytes();
+    }
+
+    // The frame is unmasked in place, so every other call sees the plain payload masked again: the same work
+    @Benchmark
+    public int decode() {
+        masked.rewind();
+        decoder.decode(masked, listener);
+        return listener.last;
+    }
+
+    // Reads one byte of each message so the unmasking cannot be skipped
+    private static class Sink implements FrameDecoder.Listener {
+        private int last;
+
+        public void onMessage(FrameType type, ByteBuffer message, boolean compressed) {
+            last = message.get(message.limit() - 1);
+        }
+
+        public void onControl(FrameType type, ByteBuffer message) {}
+
+        public void onError(int code, String reason) {
+            throw new IllegalStateException(reason);
+        }
+    }
+
+    // A client's BINARY frame as it arrives, masked with a fixed key
+    private static byte[] masked(byte[] payload) {
+        int n = payload.length;
+        ByteBuffer frame = ByteBuffer.allocate(n + 14);
+        frame.put((byte) (0x80 | FrameType.BINARY.getCode()));
+        if (n < 126) {
+            frame.put((byte) (0x80 | n));
+        } else if (n < 65536) {
+            frame.put((byte) (0x80 | 126)).putShort((short) n);
+        } else {
+            frame.put((byte) (0x80 | 127)).putLong(n);
+        }
+        byte[] key = {0x12, 0x34, 0x56, 0x78};
+        frame.put(key);
+        for (int i = 0; i < n; i++) frame.put((byte) (payload[i] ^ key[i & 3]));
+        frame.flip();
+
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+}
@@ -1,5 +1,7 @@
 const squares = document.querySelectorAll('table.chessboard td');
-const gameSocket = new WebSocket("ws://localhost:4220/game");
+// The game to join comes from the page's #fragment, e.g. /#friday-blitz
+const gameId = location.hash.slice(1) || "default";
+const gameSocket = new WebSocket(`ws://${location.host}/game/${encodeURIComponent(gameId)}`);
 
 let currMove = "";
 let player;
@@ -29,11 +31,40 @@ function parseMessage(msg) {
         console.log("move");
         movePiece(tokens[1]);
         checkNext(tokens[2]);
+    } else if (tokens[0] === "sync") {
+        // The whole position when we join late or fell behind: sync:<fen>:<moves>:<side to move>
+        loadFen(tokens[1]);
+        checkNext(tokens[3]);
+    } else if (tokens[0] === "end") {
+        player.canMove = false;
+        const result = tokens[1] === "checkmate" ? `checkmate, ${tokens[2]} wins` : tokens[1];
+        document.querySelector("#player").innerText += ` - ${result}`;
+    } else if (tokens[0] === "error") {
+        // The server refused our move, the board only changes on its broadcasts
+        console.log(`move rejected: ${tokens.slice(1).join(":")}`);
     }
 }
 
+function loadFen(fen) {
+    const names = {p: "Pawn", n: "Knight", b: "Bishop", r: "Rook", q: "Queen", k: "King"};
+    const placement = fen.split(" ")[0];
+    // Ranks come from 8 down to 1, the same order as the table rows
+    placement.split("/").forEach((rank, row) => {
+        let col = 0;
+        for (const c of rank) {
+            if (c >= "1" && c <= "8") {
+                for (let i = 0; i < Number(c); i++) squares[row * 8 + col++].removeAttribute("data-piece");
+            } else {
+                const color = c === c.toUpperCase() ? "white" : "black";
+                squares[row * 8 + col++].setAttribute("data-piece", color + names[c.toLowerCase()]);
+            }
+        }
+    });
+    currMove = "";
+}
+
 function checkNext(next) {
-    // TODO: Add more robust turn control
+    // The server checks turns too, this only keeps us from sending moves it would refuse
     player.canMove = next === player.getRole();
 }
 
@@ -52,6 +83,11 @@ function tryMove(position, isValid) {
         currMove = position;
     } else {
         currMove += position;
+        // A pawn reaching the last rank becomes a queen
+        const piece = getElement(currMove.slice(0,2)).dataset.piece;
+        if (piece.endsWith("Pawn") && (position[1] === "8" || position[1] === "1")) {
+            currMove += "q";
+        }
         gameSocket.send(`move:${currMove}`);
         currMove = "";
     }
@@ -59,17 +95,31 @@ function tryMove(position, isValid) {
 
 function movePiece(move) {
     const origin = move.slice(0,2);
-    const dest = move.slice(2);
+    const dest = move.slice(2,4);
 
     console.log(`origin: ${origin}`)
     console.log(`destination: ${dest}`)
 
     const originElem = getElement(origin)
+    const destElem = getElement(dest)
     const piece = originElem.dataset.piece;
-    originElem.removeAttribute("data-piece");
 
-    getElement(dest).setAttribute("data-piece", piece);
+    // En passant: a pawn moving diagonally onto an empty square takes the pawn beside it
+    if (piece.endsWith("Pawn") && origin[0] !== dest[0] && !destElem.dataset.piece) {
+        getElement(dest[0] + origin[1]).removeAttribute("data-piece");
+    }
+    // Castling: the king moves two files and the rook jumps over it
+    const files = 'abcdefgh';
+    if (piece.endsWith("King") && Math.abs(files.indexOf(origin[0]) - files.indexOf(dest[0])) === 2) {
+        const kingside = dest[0] === "g";
+        const rookFrom = getElement((kingside ? "h" : "a") + origin[1]);
+        getElement((kingside ? "f" : "d") + origin[1]).setAttribute("data-piece", rookFrom.dataset.piece);
+        rookFrom.removeAttribute("data-piece");
+    }
 
+    originElem.removeAttribute("data-piece");
+    const promotion = {q: "Queen", r: "Rook", b: "Bishop", n: "Knight"}[move[4]];
+    destElem.setAttribute("data-piece", promotion ? piece.slice(0,5) + promotion : piece);
 }
 
 function getIndex(element) {
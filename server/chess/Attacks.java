@@ -0,0 +1,110 @@
+package server.chess;
+
+// Precomputed attack sets for every square.
+// Sliding pieces look up their attacks by compressing the blocker bits under the square's mask (PEXT)
+// into a dense index, so a lookup is one compress and one array load whatever the board looks like.
+final class Attacks {
+    final static long[] KNIGHT = new long[64];
+    final static long[] KING = new long[64];
+    final static long[][] PAWN = new long[2][64];
+
+    final private static int[][] ROOK_DIRS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    final private static int[][] BISHOP_DIRS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    final private static long[] ROOK_MASK = new long[64];
+    final private static long[] BISHOP_MASK = new long[64];
+    final private static int[] ROOK_OFFSET = new int[64];
+    final private static int[] BISHOP_OFFSET = new int[64];
+    final private static long[] ROOK_TABLE = new long[102400];
+    final private static long[] BISHOP_TABLE = new long[5248];
+
+    static {
+        int[][] knight = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        int[][] king = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+
+        int rookOffset = 0;
+        int bishopOffset = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            KNIGHT[sq] = steps(sq, knight);
+            KING[sq] = steps(sq, king);
+            PAWN[Board.WHITE][sq] = steps(sq, new int[][] {{-1, 1}, {1, 1}});
+            PAWN[Board.BLACK][sq] = steps(sq, new int[][] {{-1, -1}, {1, -1}});
+
+            ROOK_OFFSET[sq] = rookOffset;
+            ROOK_MASK[sq] = mask(sq, ROOK_DIRS);
+            rookOffset += fill(sq, ROOK_MASK[sq], ROOK_DIRS, ROOK_TABLE, rookOffset);
+
+            BISHOP_OFFSET[sq] = bishopOffset;
+            BISHOP_MASK[sq] = mask(sq, BISHOP_DIRS);
+            bishopOffset += fill(sq, BISHOP_MASK[sq], BISHOP_DIRS, BISHOP_TABLE, bishopOffset);
+        }
+    }
+
+    private Attacks() {}
+
+    static long rook(int sq, long occupied) {
+        return ROOK_TABLE[ROOK_OFFSET[sq] + (int) Long.compress(occupied, ROOK_MASK[sq])];
+    }
+
+    static long bishop(int sq, long occupied) {
+        return BISHOP_TABLE[BISHOP_OFFSET[sq] + (int) Long.compress(occupied, BISHOP_MASK[sq])];
+    }
+
+    static long queen(int sq, long occupied) {
+        return rook(sq, occupied) | bishop(sq, occupied);
+    }
+
+    private static long steps(int sq, int[][] deltas) {
+        long set = 0;
+        for (int[] d : deltas) {
+            int file = (sq & 7) + d[0];
+            int rank = (sq >>> 3) + d[1];
+            if (onBoard(file, rank)) set |= 1L << (rank * 8 + file);
+        }
+        return set;
+    }
+
+    // Squares whose occupancy can change the attacks, the last square of each ray never blocks anything
+    private static long mask(int sq, int[][] dirs) {
+        long set = 0;
+        for (int[] d : dirs) {
+            int file = (sq & 7) + d[0];
+            int rank = (sq >>> 3) + d[1];
+            while (onBoard(file + d[0], rank + d[1])) {
+                set |= 1L << (rank * 8 + file);
+                file += d[0];
+                rank += d[1];
+            }
+        }
+        return set;
+    }
+
+    // Every blocker subset of the mask, laid out in compress order. Returns the number of entries used.
+    private static int fill(int sq, long mask, int[][] dirs, long[] table, int offset) {
+        int size = 1 << Long.bitCount(mask);
+        for (int i = 0; i < size; i++) {
+            table[offset + i] = slide(sq, Long.expand(i, mask), dirs);
+        }
+        return size;
+    }
+
+    private static long slide(int sq, long occupied, int[][] dirs) {
+        long set = 0;
+        for (int[] d : dirs) {
+            int file = (sq & 7) + d[0];
+            int rank = (sq >>> 3) + d[1];
+            while (onBoard(file, rank)) {
+                long bit = 1L << (rank * 8 + file);
+                set |= bit;
+                if ((occupied & bit) != 0) break;
+                file += d[0];
+                rank += d[1];
+            }
+        }
+        return set;
+    }
+
+    private static boolean onBoard(int file, int rank) {
+        return file >= 0 && file < 8 && rank >= 0 && rank < 8;
+    }
+}
@@ -0,0 +1,404 @@
+package server.chess;
+
+// A chess position as bitboards, one bit per square with a1 as bit 0.
+// Checking a move or looking for any legal reply never allocates, the whole position is a few longs
+// and a 64 byte mailbox for finding the piece on a square.
+public class Board {
+    final public static int WHITE = 0;
+    final public static int BLACK = 1;
+
+    final public static int PAWN = 0;
+    final public static int KNIGHT = 1;
+    final public static int BISHOP = 2;
+    final public static int ROOK = 3;
+    final public static int QUEEN = 4;
+    final public static int KING = 5;
+
+    final public static String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    // A Board alone only ends games by mate or stalemate, Game adds the draws that need the history
+    public static enum Status {
+        ONGOING("ongoing"),
+        CHECKMATE("checkmate"),
+        STALEMATE("stalemate"),
+        REPETITION("repetition"),
+        FIFTY_MOVES("fifty-moves");
+
+        final private String value;
+
+        Status(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+
+    // Castling rights, cleared for good once the king or a rook leaves (or is taken on) its square
+    final private static int WHITE_SHORT = 1;
+    final private static int WHITE_LONG = 2;
+    final private static int BLACK_SHORT = 4;
+    final private static int BLACK_LONG = 8;
+    final private static int[] CASTLE_KEEP = new int[64];
+
+    static {
+        for (int sq = 0; sq < 64; sq++) CASTLE_KEEP[sq] = 15;
+        CASTLE_KEEP[0] = ~WHITE_LONG;
+        CASTLE_KEEP[4] = ~(WHITE_SHORT | WHITE_LONG);
+        CASTLE_KEEP[7] = ~WHITE_SHORT;
+        CASTLE_KEEP[56] = ~BLACK_LONG;
+        CASTLE_KEEP[60] = ~(BLACK_SHORT | BLACK_LONG);
+        CASTLE_KEEP[63] = ~BLACK_SHORT;
+    }
+
+    final private long[] colors = new long[2];
+    final private long[] types = new long[6];
+    // 0 for an empty square, otherwise type + 1 with the color in bit 3
+    final private byte[] squares = new byte[64];
+    private int side = WHITE;
+    private int castling;
+    private int epSquare = -1;
+    private int halfmoves;
+    private int fullmoves = 1;
+    // Zobrist hash of everything above except the move counters
+    private long hash;
+
+    public Board() {
+        this(START);
+    }
+
+    public Board(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4) throw new IllegalArgumentException("Bad FEN: " + fen);
+
+        int rank = 7;
+        int file = 0;
+        for (char c : fields[0].toCharArray()) {
+            if (c == '/') {
+                rank--;
+                file = 0;
+            } else if (c >= '1' && c <= '8') {
+                file += c - '0';
+            } else {
+                int type = "pnbrqk".indexOf(Character.toLowerCase(c));
+                if (type < 0 || rank < 0 || file > 7) throw new IllegalArgumentException("Bad FEN: " + fen);
+                put(rank * 8 + file, Character.isUpperCase(c) ? WHITE : BLACK, type);
+                file++;
+            }
+        }
+
+        side = fields[1].equals("b") ? BLACK : WHITE;
+        for (char c : fields[2].toCharArray()) {
+            castling |= switch (c) {
+                case 'K' -> WHITE_SHORT;
+                case 'Q' -> WHITE_LONG;
+                case 'k' -> BLACK_SHORT;
+                case 'q' -> BLACK_LONG;
+                default -> 0;
+            };
+        }
+        epSquare = fields[3].length() == 2 ? Move.square(fields[3].charAt(0), fields[3].charAt(1)) : -1;
+        if (fields.length > 5) {
+            halfmoves = Integer.parseInt(fields[4]);
+            fullmoves = Integer.parseInt(fields[5]);
+        }
+        hash ^= Zobrist.CASTLING[castling];
+        if (epSquare >= 0) hash ^= Zobrist.EN_PASSANT[epSquare & 7];
+        if (side == BLACK) hash ^= Zobrist.BLACK_TO_MOVE;
+    }
+
+    public Board(Board other) {
+        System.arraycopy(other.colors, 0, colors, 0, 2);
+        System.arraycopy(other.types, 0, types, 0, 6);
+        System.arraycopy(other.squares, 0, squares, 0, 64);
+        side = other.side;
+        castling = other.castling;
+        epSquare = other.epSquare;
+        halfmoves = other.halfmoves;
+        fullmoves = other.fullmoves;
+        hash = other.hash;
+    }
+
+    public int sideToMove() {
+        return side;
+    }
+
+    public String toFen() {
+        StringBuilder sb = new StringBuilder(90);
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int piece = squares[rank * 8 + file];
+                if (piece == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) sb.append(empty);
+                empty = 0;
+                char c = "pnbrqk".charAt(type(piece));
+                sb.append(color(piece) == WHITE ? Character.toUpperCase(c) : c);
+            }
+            if (empty > 0) sb.append(empty);
+            if (rank > 0) sb.append('/');
+        }
+
+        sb.append(side == WHITE ? " w " : " b ");
+        if (castling == 0) sb.append('-');
+        if ((castling & WHITE_SHORT) != 0) sb.append('K');
+        if ((castling & WHITE_LONG) != 0) sb.append('Q');
+        if ((castling & BLACK_SHORT) != 0) sb.append('k');
+        if ((castling & BLACK_LONG) != 0) sb.append('q');
+        sb.append(' ');
+        if (epSquare < 0) {
+            sb.append('-');
+        } else {
+            Move.appendSquare(sb, epSquare);
+        }
+        return sb.append(' ').append(halfmoves).append(' ').append(fullmoves).toString();
+    }
+
+    public long hash() {
+        return hash;
+    }
+
+    public int halfmoves() {
+        return halfmoves;
+    }
+
+    public int fullmoves() {
+        return fullmoves;
+    }
+
+    // The type of the piece on sq, -1 if it is empty
+    public int typeAt(int sq) {
+        return squares[sq] == 0 ? -1 : type(squares[sq]);
+    }
+
+    public boolean inCheck() {
+        return attacked(king(side), side, occupied(), colors[side ^ 1]);
+    }
+
+    public Status status() {
+        if (hasLegalMove()) return Status.ONGOING;
+        return inCheck() ? Status.CHECKMATE : Status.STALEMATE;
+    }
+
+    public boolean isLegal(int move) {
+        if (move < 0) return false;
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int promotion = Move.promotion(move);
+
+        int piece = squares[from];
+        if (piece == 0 || color(piece) != side) return false;
+        long toBit = 1L << to;
+        if ((colors[side] & toBit) != 0) return false;
+
+        int type = type(piece);
+        if (type == PAWN) {
+            boolean lastRank = (to >>> 3) == (side == WHITE ? 7 : 0);
+            if (lastRank != (promotion != 0) || promotion > QUEEN) return false;
+            if ((pawnTargets(from) & toBit) == 0) return false;
+        } else {
+            if (promotion != 0) return false;
+            if (type == KING && Math.abs(to - from) == 2) return canCastle(from, to);
+            if ((targets(type, from, occupied()) & toBit) == 0) return false;
+        }
+        return leavesKingSafe(from, to, type);
+    }
+
+    // Plays a move that passed isLegal
+    public void make(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int promotion = Move.promotion(move);
+        int type = type(squares[from]);
+        int forward = side == WHITE ? 8 : -8;
+
+        halfmoves++;
+        if (squares[to] != 0) {
+            remove(to);
+            halfmoves = 0;
+        }
+        if (type == PAWN) {
+            halfmoves = 0;
+            if (to == epSquare) remove(to - forward);
+        }
+
+        remove(from);
+        put(to, side, promotion != 0 ? promotion : type);
+
+        if (type == KING && Math.abs(to - from) == 2) {
+            int rookFrom = to > from ? from + 3 : from - 4;
+            remove(rookFrom);
+            put((from + to) >>> 1, side, ROOK);
+        }
+
+        // Only remember the en passant square when a pawn can actually take there,
+        // otherwise the same position would hash differently depending on how it was reached
+        if (epSquare >= 0) hash ^= Zobrist.EN_PASSANT[epSquare & 7];
+        epSquare = -1;
+        if (type == PAWN && Math.abs(to - from) == 16) {
+            int passed = from + forward;
+            if ((Attacks.PAWN[side][passed] & types[PAWN] & colors[side ^ 1]) != 0) {
+                epSquare = passed;
+                hash ^= Zobrist.EN_PASSANT[passed & 7];
+            }
+        }
+
+        hash ^= Zobrist.CASTLING[castling];
+        castling &= CASTLE_KEEP[from] & CASTLE_KEEP[to];
+        hash ^= Zobrist.CASTLING[castling];
+
+        if (side == BLACK) fullmoves++;
+        side ^= 1;
+        hash ^= Zobrist.BLACK_TO_MOVE;
+    }
+
+    // Fills moves with every legal move and returns how many there are, 218 is the most any position has
+    public int legalMoves(int[] moves) {
+        return generate(moves);
+    }
+
+    public boolean hasLegalMove() {
+        return generate(null) > 0;
+    }
+
+    // With no array to fill, stops at the first legal move
+    private int generate(int[] moves) {
+        int count = 0;
+        long us = colors[side];
+        long occupied = occupied();
+
+        for (long pieces = us; pieces != 0; pieces &= pieces - 1) {
+            int from = Long.numberOfTrailingZeros(pieces);
+            int type = type(squares[from]);
+            long targets = type == PAWN ? pawnTargets(from) : targets(type, from, occupied) & ~us;
+
+            for (; targets != 0; targets &= targets - 1) {
+                int to = Long.numberOfTrailingZeros(targets);
+                if (!leavesKingSafe(from, to, type)) continue;
+                if (moves == null) return 1;
+
+                if (type == PAWN && ((to >>> 3) == 7 || (to >>> 3) == 0)) {
+                    for (int promotion = QUEEN; promotion >= KNIGHT; promotion--) {
+                        moves[count++] = Move.of(from, to, promotion);
+                    }
+                } else {
+                    moves[count++] = Move.of(from, to, 0);
+                }
+            }
+        }
+
+        int king = king(side);
+        for (int to = king - 2; to <= king + 2; to += 4) {
+            if (to >= 0 && to < 64 && canCastle(king, to)) {
+                if (moves == null) return 1;
+                moves[count++] = Move.of(king, to, 0);
+            }
+        }
+        return count;
+    }
+
+    private long targets(int type, int from, long occupied) {
+        return switch (type) {
+            case KNIGHT -> Attacks.KNIGHT[from];
+            case BISHOP -> Attacks.bishop(from, occupied);
+            case ROOK -> Attacks.rook(from, occupied);
+            case QUEEN -> Attacks.queen(from, occupied);
+            case KING -> Attacks.KING[from];
+            default -> 0;
+        };
+    }
+
+    // Pushes onto empty squares, captures onto enemy pieces or the en passant square
+    private long pawnTargets(int from) {
+        long empty = ~occupied();
+        long targets;
+        if (side == WHITE) {
+            long one = (1L << from << 8) & empty;
+            targets = one | (one << 8 & empty & 0xFF000000L);
+        } else {
+            long one = (1L << from >>> 8) & empty;
+            targets = one | (one >>> 8 & empty & 0xFF00000000L);
+        }
+        long enemy = colors[side ^ 1];
+        if (epSquare >= 0) enemy |= 1L << epSquare;
+        return targets | Attacks.PAWN[side][from] & enemy;
+    }
+
+    // Rights still held, nothing between king and rook, and the king never stands on an attacked square
+    private boolean canCastle(int from, int to) {
+        if (from != (side == WHITE ? 4 : 60)) return false;
+        boolean kingside = to > from;
+        int right = side == WHITE ? (kingside ? WHITE_SHORT : WHITE_LONG) : (kingside ? BLACK_SHORT : BLACK_LONG);
+        if ((castling & right) == 0) return false;
+
+        long between = kingside ? 0x60L : 0x0EL;
+        if (side == BLACK) between <<= 56;
+        long occupied = occupied();
+        if ((occupied & between) != 0) return false;
+
+        long them = colors[side ^ 1];
+        int step = kingside ? 1 : -1;
+        return !attacked(from, side, occupied, them)
+            && !attacked(from + step, side, occupied, them)
+            && !attacked(to, side, occupied, them);
+    }
+
+    // Tries the move on the occupancy bits alone, nothing on the board changes
+    private boolean leavesKingSafe(int from, int to, int type) {
+        long toBit = 1L << to;
+        long occupied = occupied() & ~(1L << from) | toBit;
+        long them = colors[side ^ 1] & ~toBit;
+        if (type == PAWN && to == epSquare) {
+            long taken = 1L << (side == WHITE ? to - 8 : to + 8);
+            occupied &= ~taken;
+            them &= ~taken;
+        }
+        int king = type == KING ? to : king(side);
+        return !attacked(king, side, occupied, them);
+    }
+
+    private boolean attacked(int sq, int us, long occupied, long them) {
+        return (Attacks.PAWN[us][sq] & types[PAWN] & them) != 0
+            || (Attacks.KNIGHT[sq] & types[KNIGHT] & them) != 0
+            || (Attacks.KING[sq] & types[KING] & them) != 0
+            || (Attacks.bishop(sq, occupied) & (types[BISHOP] | types[QUEEN]) & them) != 0
+            || (Attacks.rook(sq, occupied) & (types[ROOK] | types[QUEEN]) & them) != 0;
+    }
+
+    private int king(int color) {
+        return Long.numberOfTrailingZeros(types[KING] & colors[color]);
+    }
+
+    private long occupied() {
+        return colors[WHITE] | colors[BLACK];
+    }
+
+    private void put(int sq, int color, int type) {
+        long bit = 1L << sq;
+        colors[color] |= bit;
+        types[type] |= bit;
+        squares[sq] = (byte) (type + 1 | color << 3);
+        hash ^= Zobrist.piece(color, type, sq);
+    }
+
+    private void remove(int sq) {
+        int piece = squares[sq];
+        long bit = 1L << sq;
+        colors[color(piece)] &= ~bit;
+        types[type(piece)] &= ~bit;
+        squares[sq] = 0;
+        hash ^= Zobrist.piece(color(piece), type(piece), sq);
+    }
+
+    private static int type(int piece) {
+        return (piece & 7) - 1;
+    }
+
+    private static int color(int piece) {
+        return piece >>> 3;
+    }
+}
@@ -0,0 +1,81 @@
+package server.chess;
+
+import java.util.Arrays;
+
+import server.chess.Board.Status;
+
+// A game in progress: the board plus what the rules need from its history.
+// Threefold repetition only ever involves positions since the last capture or pawn move, so those are
+// kept in a small open addressed table of hash to count and dropped whenever the halfmove clock resets.
+public class Game {
+    final private Board board = new Board();
+    private long[] seen = new long[16];
+    private byte[] counts = new byte[16];
+    private int seenCount;
+    private Status status = Status.ONGOING;
+
+    public Game() {
+        record(board.hash());
+    }
+
+    public Board board() {
+        return board;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public boolean play(int move) {
+        if (status != Status.ONGOING || !board.isLegal(move)) return false;
+
+        board.make(move);
+        if (board.halfmoves() == 0) clearSeen();
+        int repeated = record(board.hash());
+
+        // Mate and stalemate first, status() stops at the first legal move it finds
+        status = board.status();
+        if (status != Status.ONGOING) return true;
+        if (repeated >= 3) {
+            status = Status.REPETITION;
+        } else if (board.halfmoves() >= 100) {
+            status = Status.FIFTY_MOVES;
+        }
+        return true;
+    }
+
+    // Returns how many times the position has now occurred
+    private int record(long hash) {
+        if (seenCount * 2 >= seen.length) grow();
+        int mask = seen.length - 1;
+        int i = (int) hash & mask;
+        while (counts[i] != 0 && seen[i] != hash) i = (i + 1) & mask;
+
+        if (counts[i] == 0) {
+            seen[i] = hash;
+            seenCount++;
+        }
+        return ++counts[i];
+    }
+
+    private void grow() {
+        long[] oldSeen = seen;
+        byte[] oldCounts = counts;
+        seen = new long[oldSeen.length * 2];
+        counts = new byte[oldSeen.length * 2];
+        int mask = seen.length - 1;
+        for (int j = 0; j < oldSeen.length; j++) {
+            if (oldCounts[j] == 0) continue;
+            int i = (int) oldSeen[j] & mask;
+            while (counts[i] != 0) i = (i + 1) & mask;
+            seen[i] = oldSeen[j];
+            counts[i] = oldCounts[j];
+        }
+    }
+
+    private void clearSeen() {
+        if (seenCount == 0) return;
+        Arrays.fill(counts, (byte) 0);
+        seenCount = 0;
+    }
+}
@@ -0,0 +1,58 @@
+package server.chess;
+
+// A move packed into 16 bits: from square (6), to square (6), promotion piece (4).
+// Squares count from a1 = 0 to h8 = 63. Castling is the king moving two files, as in UCI.
+public final class Move {
+    final public static int NONE = -1;
+
+    private Move() {}
+
+    public static int of(int from, int to, int promotion) {
+        return from | to << 6 | promotion << 12;
+    }
+
+    public static int from(int move) {
+        return move & 63;
+    }
+
+    public static int to(int move) {
+        return move >>> 6 & 63;
+    }
+
+    public static int promotion(int move) {
+        return move >>> 12 & 15;
+    }
+
+    // e2e4, e7e8q. Returns NONE for anything that is not shaped like a move.
+    public static int parse(CharSequence uci) {
+        if (uci.length() != 4 && uci.length() != 5) return NONE;
+
+        int from = square(uci.charAt(0), uci.charAt(1));
+        int to = square(uci.charAt(2), uci.charAt(3));
+        if (from < 0 || to < 0) return NONE;
+
+        int promotion = 0;
+        if (uci.length() == 5) {
+            promotion = "nbrq".indexOf(uci.charAt(4)) + 1;
+            if (promotion == 0) return NONE;
+        }
+        return of(from, to, promotion);
+    }
+
+    public static String toUci(int move) {
+        StringBuilder sb = new StringBuilder(5);
+        appendSquare(sb, from(move));
+        appendSquare(sb, to(move));
+        if (promotion(move) != 0) sb.append("pnbrqk".charAt(promotion(move)));
+        return sb.toString();
+    }
+
+    static int square(char file, char rank) {
+        if (file < 'a' || file > 'h' || rank < '1' || rank > '8') return -1;
+        return (rank - '1') * 8 + (file - 'a');
+    }
+
+    static void appendSquare(StringBuilder sb, int sq) {
+        sb.append((char) ('a' + (sq & 7))).append((char) ('1' + (sq >>> 3)));
+    }
+}
@@ -0,0 +1,54 @@
+package server.chess;
+
+import java.util.HashMap;
+
+// Named opening positions by Zobrist hash, so a transposition into a known line is recognised too
+final class Openings {
+    final private static String[][] LINES = {
+        {"King's Pawn Game", "e2e4"},
+        {"Queen's Pawn Game", "d2d4"},
+        {"English Opening", "c2c4"},
+        {"Reti Opening", "g1f3"},
+        {"Open Game", "e2e4 e7e5"},
+        {"Sicilian Defence", "e2e4 c7c5"},
+        {"French Defence", "e2e4 e7e6"},
+        {"Caro-Kann Defence", "e2e4 c7c6"},
+        {"Scandinavian Defence", "e2e4 d7d5"},
+        {"Alekhine's Defence", "e2e4 g8f6"},
+        {"Pirc Defence", "e2e4 d7d6 d2d4 g8f6 b1c3 g7g6"},
+        {"King's Knight Opening", "e2e4 e7e5 g1f3"},
+        {"King's Gambit", "e2e4 e7e5 f2f4"},
+        {"Vienna Game", "e2e4 e7e5 b1c3"},
+        {"Petrov's Defence", "e2e4 e7e5 g1f3 g8f6"},
+        {"Ruy Lopez", "e2e4 e7e5 g1f3 b8c6 f1b5"},
+        {"Italian Game", "e2e4 e7e5 g1f3 b8c6 f1c4"},
+        {"Scotch Game", "e2e4 e7e5 g1f3 b8c6 d2d4"},
+        {"Sicilian Defence, Najdorf Variation", "e2e4 c7c5 g1f3 d7d6 d2d4 c5d4 f3d4 g8f6 b1c3 a7a6"},
+        {"Sicilian Defence, Dragon Variation", "e2e4 c7c5 g1f3 d7d6 d2d4 c5d4 f3d4 g8f6 b1c3 g7g6"},
+        {"Queen's Gambit", "d2d4 d7d5 c2c4"},
+        {"Queen's Gambit Accepted", "d2d4 d7d5 c2c4 d5c4"},
+        {"Queen's Gambit Declined", "d2d4 d7d5 c2c4 e7e6"},
+        {"Slav Defence", "d2d4 d7d5 c2c4 c7c6"},
+        {"London System", "d2d4 d7d5 c1f4"},
+        {"Dutch Defence", "d2d4 f7f5"},
+        {"King's Indian Defence", "d2d4 g8f6 c2c4 g7g6"},
+        {"Nimzo-Indian Defence", "d2d4 g8f6 c2c4 e7e6 b1c3 f8b4"},
+        {"Grunfeld Defence", "d2d4 g8f6 c2c4 g7g6 b1c3 d7d5"},
+    };
+
+    final private static HashMap<Long, String> NAMES = new HashMap<>();
+
+    static {
+        for (String[] line : LINES) {
+            Board board = new Board();
+            for (String uci : line[1].split(" ")) board.make(Move.parse(uci));
+            NAMES.put(board.hash(), line[0]);
+        }
+    }
+
+    private Openings() {}
+
+    static String name(long hash) {
+        return NAMES.get(hash);
+    }
+}
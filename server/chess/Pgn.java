@@ -0,0 +1,138 @@
+package server.chess;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import server.chess.Board.Status;
+
+// Writes games as PGN, moves in SAN worked out by replaying them from the start position.
+// The legal moves SAN needs and the opening name come from the shared position cache, so exports of
+// games through the same positions work each of them out once.
+public final class Pgn {
+    final private static int LINE = 80;
+    final private static String PIECES = "PNBRQK";
+    final private static DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy.MM.dd").withZone(ZoneOffset.UTC);
+
+    private Pgn() {}
+
+    // Appends one game and the blank line after it. time is when it started in epoch seconds, 0 if unknown.
+    // Moves that are not legal where they are played end the movetext there.
+    public static void write(StringBuilder out, PositionCache positions, String id, long time, short[] moves, int count,
+            Status status) {
+        Board board = new Board();
+        PositionCache.Entry position = positions.get(board);
+        StringBuilder movetext = new StringBuilder(count * 8 + 16);
+        StringBuilder san = new StringBuilder(8);
+        String opening = null;
+        int lineStart = 0;
+
+        for (int i = 0; i < count; i++) {
+            int move = moves[i] & 0xFFFF;
+            if (!board.isLegal(move)) break;
+
+            san.setLength(0);
+            if (board.sideToMove() == Board.WHITE) san.append(board.fullmoves()).append(". ");
+            appendSan(san, board, move, position.moves());
+
+            board.make(move);
+            position = positions.get(board);
+            if (board.inCheck()) san.append(position.moves().length > 0 ? '+' : '#');
+            if (position.opening() != null) opening = position.opening();
+            lineStart = token(movetext, san, lineStart);
+        }
+
+        String result = result(board, status);
+        san.setLength(0);
+        token(movetext, san.append(result), lineStart);
+
+        tag(out, "Event", "Casual game");
+        tag(out, "Site", "jess");
+        tag(out, "Date", time > 0 ? DATE.format(Instant.ofEpochSecond(time)) : "????.??.??");
+        tag(out, "Round", "-");
+        tag(out, "White", "?");
+        tag(out, "Black", "?");
+        tag(out, "Result", result);
+        tag(out, "GameId", id);
+        if (opening != null) tag(out, "Opening", opening);
+        out.append('\n').append(movetext).append("\n\n");
+    }
+
+    // SAN for a legal move, without the + or # that depends on the position after it
+    private static void appendSan(StringBuilder out, Board board, int move, int[] legal) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int type = board.typeAt(from);
+        boolean capture = board.typeAt(to) >= 0 || (type == Board.PAWN && (from & 7) != (to & 7));
+
+        if (type == Board.KING && Math.abs(to - from) == 2) {
+            out.append(to > from ? "O-O" : "O-O-O");
+        } else if (type == Board.PAWN) {
+            if (capture) out.append((char) ('a' + (from & 7))).append('x');
+            Move.appendSquare(out, to);
+            if (Move.promotion(move) != 0) out.append('=').append(PIECES.charAt(Move.promotion(move)));
+        } else {
+            out.append(PIECES.charAt(type));
+            disambiguate(out, board, move, type, legal);
+            if (capture) out.append('x');
+            Move.appendSquare(out, to);
+        }
+    }
+
+    // Adds the file, the rank or both when another piece of the same type can reach the same square.
+    // legal is every legal move in the position.
+    private static void disambiguate(StringBuilder out, Board board, int move, int type, int[] legal) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        boolean other = false, sameFile = false, sameRank = false;
+
+        for (int i = 0; i < legal.length; i++) {
+            int rival = Move.from(legal[i]);
+            if (Move.to(legal[i]) != to || rival == from || board.typeAt(rival) != type) continue;
+            other = true;
+            sameFile |= (rival & 7) == (from & 7);
+            sameRank |= (rival >>> 3) == (from >>> 3);
+        }
+
+        if (!other) return;
+        if (!sameFile) {
+            out.append((char) ('a' + (from & 7)));
+        } else if (!sameRank) {
+            out.append((char) ('1' + (from >>> 3)));
+        } else {
+            Move.appendSquare(out, from);
+        }
+    }
+
+    private static String result(Board board, Status status) {
+        return switch (status) {
+            case ONGOING -> "*";
+            case CHECKMATE -> board.sideToMove() == Board.WHITE ? "0-1" : "1-0";
+            case STALEMATE, REPETITION, FIFTY_MOVES -> "1/2-1/2";
+        };
+    }
+
+    // Appends a movetext token, breaking the line before it would pass LINE. Returns where the line starts.
+    private static int token(StringBuilder movetext, CharSequence token, int lineStart) {
+        if (movetext.length() > lineStart) {
+            if (movetext.length() - lineStart + 1 + token.length() > LINE) {
+                movetext.append('\n');
+                lineStart = movetext.length();
+            } else {
+                movetext.append(' ');
+            }
+        }
+        movetext.append(token);
+        return lineStart;
+    }
+
+    private static void tag(StringBuilder out, String name, String value) {
+        out.append('[').append(name).append(" \"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') out.append('\\');
+            out.append(c);
+        }
+        out.append("\"]\n");
+    }
+}
@@ -0,0 +1,69 @@
+package server.chess;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// What we worked out about a position, shared by every game written out as PGN that passes through it.
+// A fixed number of slots indexed by the Zobrist hash, a new entry simply replaces whatever was there.
+// Entries are immutable, so readers and writers never lock and a lost race only costs a recomputation.
+public class PositionCache {
+    public static class Entry {
+        final private long hash;
+        final private int[] moves;
+        final private String opening;
+
+        Entry(long hash, int[] moves, String opening) {
+            this.hash = hash;
+            this.moves = moves;
+            this.opening = opening;
+        }
+
+        // Legal moves in the position, do not modify
+        public int[] moves() {
+            return moves;
+        }
+
+        // Name of the opening if this position is a known one, otherwise null
+        public String opening() {
+            return opening;
+        }
+    }
+
+    final private AtomicReferenceArray<Entry> slots;
+    final private int mask;
+    final private LongAdder hits = new LongAdder();
+    final private LongAdder misses = new LongAdder();
+
+    // Rounded up to a power of two
+    public PositionCache(int size) {
+        int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(slots);
+        mask = slots - 1;
+    }
+
+    public Entry get(Board board) {
+        long hash = board.hash();
+        int index = (int) hash & mask;
+        Entry entry = slots.getAcquire(index);
+        if (entry != null && entry.hash == hash) {
+            hits.increment();
+            return entry;
+        }
+
+        misses.increment();
+        int[] moves = new int[256];
+        int count = board.legalMoves(moves);
+        entry = new Entry(hash, Arrays.copyOf(moves, count), Openings.name(hash));
+        slots.setRelease(index, entry);
+        return entry;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+}
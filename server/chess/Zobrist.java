@@ -0,0 +1,27 @@
+package server.chess;
+
+import java.util.SplittableRandom;
+
+// Random keys XORed together into a position hash. Board keeps the hash up to date as pieces move,
+// so hashing a position costs a few XORs per move instead of a pass over the board.
+// The seed is fixed so hashes mean the same thing across restarts.
+final class Zobrist {
+    final static long[] PIECES = new long[2 * 6 * 64];
+    final static long[] CASTLING = new long[16];
+    final static long[] EN_PASSANT = new long[8];
+    final static long BLACK_TO_MOVE;
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6A657373L);
+        for (int i = 0; i < PIECES.length; i++) PIECES[i] = random.nextLong();
+        for (int i = 0; i < CASTLING.length; i++) CASTLING[i] = random.nextLong();
+        for (int i = 0; i < EN_PASSANT.length; i++) EN_PASSANT[i] = random.nextLong();
+        BLACK_TO_MOVE = random.nextLong();
+    }
+
+    private Zobrist() {}
+
+    static long piece(int color, int type, int sq) {
+        return PIECES[(color * 6 + type) << 6 | sq];
+    }
+}
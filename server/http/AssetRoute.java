@@ -0,0 +1,145 @@
+package server.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import server.http.Router.Params;
+import server.http.StaticAssets.Asset;
+import server.metrics.Histogram;
+import server.metrics.Metrics;
+import server.reactor.Connection;
+import server.reactor.Outbound;
+
+// Serves one file of the client, or with no name the file the {*path} parameter names
+class AssetRoute implements Router.Route {
+    final private static Histogram FIRST_BYTE = Metrics.histogram("jess_asset_first_byte_seconds",
+        "From a static asset request being parsed to its response starting to go out");
+
+    final private StaticAssets assets;
+    final private String name;
+
+    AssetRoute(StaticAssets assets, String name) {
+        this.assets = assets;
+        this.name = name;
+    }
+
+    public void handle(Connection conn, Request req, Params params) throws IOException {
+        String name = this.name != null ? this.name : params.get("path");
+        Asset asset = assets.get(name);
+        if (asset == null) {
+            ClientHandler.sendNotFound(conn);
+            return;
+        }
+        conn.send(new FirstByte(System.nanoTime()));
+
+        if (asset.body == null) {
+            sendFile(conn, req, asset);
+            return;
+        }
+
+        boolean gzip = asset.gzip != null && req.contains("Accept-Encoding", "gzip");
+        String etag = gzip ? asset.gzipEtag : asset.etag;
+
+        if (notModified(req, asset, etag)) {
+            conn.send(ByteBuffer.wrap(gzip ? asset.gzipNotModified : asset.notModified));
+            return;
+        }
+
+        conn.send(ByteBuffer.wrap(gzip ? asset.gzipHead : asset.head));
+        if (!req.methodIs("HEAD")) {
+            conn.send(ByteBuffer.wrap(gzip ? asset.gzip : asset.body));
+        }
+    }
+
+    private void sendFile(Connection conn, Request req, Asset asset) throws IOException {
+        if (notModified(req, asset, asset.etag)) {
+            conn.send(ByteBuffer.wrap(asset.notModified));
+            return;
+        }
+
+        long start = 0;
+        long length = asset.size;
+        String status = "200 OK";
+        String extra = "";
+
+        String range = req.get("Range");
+        String ifRange = req.get("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(asset.etag))) {
+            long[] bounds = parseRange(range, asset.size);
+            if (bounds == null) {
+                String resp = "HTTP/1.1 416 Range Not Satisfiable\r\nConnection: Keep-Alive\r\n"
+                    + "Content-Range: bytes */" + asset.size + "\r\nContent-Length: 0\r\n\r\n";
+                conn.send(ByteBuffer.wrap(resp.getBytes()));
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                length = bounds[1] - bounds[0] + 1;
+                status = "206 Partial Content";
+                extra = "Content-Range: bytes " + bounds[0] + "-" + bounds[1] + "/" + asset.size + "\r\n";
+            }
+        }
+
+        conn.send(ByteBuffer.wrap(asset.head(status, asset.etag, length, false, extra)));
+        if (req.methodIs("HEAD") || length == 0) return;
+
+        ByteBuffer mapped = asset.mapped();
+        if (mapped != null) {
+            conn.send(mapped.slice((int) start, (int) length));
+        } else {
+            conn.send(new FileResponse(asset.path, start, length));
+        }
+    }
+
+    // Single byte range only: {first, last} to serve, an empty array to ignore the header,
+    // or null when the range cannot be satisfied
+    private static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) return new long[0];
+
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return new long[0];
+
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix == 0) return null;
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? size - 1 : Long.parseLong(spec.substring(dash + 1));
+                if (first >= size) return null;
+                if (last < first) return new long[0];
+                last = Math.min(last, size - 1);
+            }
+            return new long[] {first, last};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean notModified(Request req, Asset asset, String etag) {
+        if (req.get("If-None-Match") != null) {
+            return req.contains("If-None-Match", etag) || req.contains("If-None-Match", "*");
+        }
+        return asset.lastModified.equals(req.get("If-Modified-Since"));
+    }
+
+    // Queued ahead of the response, the writer reaches it just before the response's first byte
+    private static class FirstByte implements Outbound {
+        final private long start;
+
+        FirstByte(long start) {
+            this.start = start;
+        }
+
+        public boolean writeTo(SocketChannel channel) {
+            FIRST_BYTE.recordSince(start);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package server.http;
+
+import java.io.IOException;
+
+// Body of a chunked response, produced a piece at a time as the socket drains
+public interface ChunkSource {
+    // Appends the next piece of the body, false once there is nothing left
+    boolean next(StringBuilder out) throws IOException;
+
+    default void close() {}
+}
@@ -0,0 +1,158 @@
+package server.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import server.log.Log;
+import server.reactor.BufferPool;
+import server.reactor.Connection;
+import server.reactor.Outbound;
+
+// A whole response, head and chunked body, made on a virtual thread of its own so opening the source and
+// reading it (disk, rendering moves as SAN) never runs on the thread writing the socket. The thread starts when the
+// writer reaches the response and stays at most READY chunks ahead of it, so a body of any length needs a
+// few chunks of memory and a slow reader holds back the producer. A source that opens to null gets a 404.
+class ChunkedResponse implements Outbound {
+    final private static int CHUNK = 16 * 1024;
+    final private static int READY = 2;
+    final private static byte[] LAST = "0\r\n\r\n".getBytes();
+    // Room left before a chunk's data for its size line, at most 8 hex digits and CRLF
+    final private static int SIZE_LINE = 10;
+    final private static byte[] NOT_FOUND = "HTTP/1.1 404 Not Found\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n".getBytes();
+
+    interface Opener {
+        // Null when there is nothing to send
+        ChunkSource open() throws IOException;
+    }
+
+    final private Connection conn;
+    final private Opener opener;
+    final private byte[] head;
+    final private boolean headOnly;
+    // Pooled buffers made and not yet taken by the writer
+    final private ArrayBlockingQueue<ByteBuffer> ready = new ArrayBlockingQueue<>(READY);
+    // Writer only: the buffer going out, from the pool
+    private ByteBuffer out;
+    private Thread producer;
+    // Producer only
+    final private CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // Set by the producer once its last buffer is in ready
+    private volatile boolean produced = false;
+    private volatile boolean released = false;
+
+    ChunkedResponse(Connection conn, Opener opener, byte[] head, boolean headOnly) {
+        this.conn = conn;
+        this.opener = opener;
+        this.head = head;
+        this.headOnly = headOnly;
+    }
+
+    public boolean ready() {
+        if (producer == null) producer = Thread.ofVirtual().name("chunks").start(this::produce);
+        if (out != null && out.hasRemaining()) return true;
+        return !ready.isEmpty() || produced;
+    }
+
+    public boolean writeTo(SocketChannel channel) throws IOException {
+        while (true) {
+            while (out != null && out.hasRemaining()) {
+                int n = channel.write(out);
+                if (n == 0) return false;
+                Connection.BYTES_WRITTEN.add(n);
+            }
+            if (out != null) BufferPool.release(out);
+            out = ready.poll();
+            if (out != null) continue;
+            // produced is only set after the last put, so nothing can follow an empty queue
+            if (produced && ready.isEmpty()) return true;
+            // Not ready() any more, the producer resumes the writer
+            return false;
+        }
+    }
+
+    private void produce() {
+        ChunkSource source = null;
+        ByteBuffer buf = null;
+        try {
+            source = opener.open();
+            if (source == null) {
+                hand(BufferPool.acquire(NOT_FOUND.length).put(NOT_FOUND).flip());
+                return;
+            }
+            hand(BufferPool.acquire(head.length).put(head).flip());
+            if (headOnly) return;
+
+            StringBuilder text = new StringBuilder(CHUNK * 2);
+            boolean more = true;
+            while (more && !released) {
+                text.setLength(0);
+                while (more && text.length() < CHUNK) more = source.next(text);
+                // UTF-8 takes at most 3 bytes for each char
+                buf = BufferPool.acquire(SIZE_LINE + text.length() * 3 + 2 + LAST.length);
+                fill(buf, text, more);
+                hand(buf);
+                buf = null;
+            }
+        } catch (InterruptedException e) {
+            // released
+        } catch (IOException e) {
+            if (!released) {
+                Log.warn("Could not produce a chunked response: {}", e);
+                conn.close();
+            }
+        } finally {
+            if (buf != null) BufferPool.release(buf);
+            if (source != null) source.close();
+            produced = true;
+            if (released) drain();
+            conn.resume();
+        }
+    }
+
+    // One chunk of the text in UTF-8, then the last chunk if the source ran out. The data is encoded first
+    // and its size line written into the room left in front of it, so buf starts wherever that line does.
+    private void fill(ByteBuffer buf, StringBuilder text, boolean more) {
+        int start = SIZE_LINE;
+        buf.position(SIZE_LINE);
+        if (text.length() > 0) {
+            utf8.reset();
+            utf8.encode(CharBuffer.wrap(text), buf, true);
+            utf8.flush(buf);
+            int length = buf.position() - SIZE_LINE;
+
+            byte[] size = Integer.toHexString(length).getBytes();
+            start = SIZE_LINE - size.length - 2;
+            buf.put(start, size).put(SIZE_LINE - 2, (byte) '\r').put(SIZE_LINE - 1, (byte) '\n');
+            buf.put((byte) '\r').put((byte) '\n');
+        }
+        if (!more) buf.put(LAST);
+        buf.flip().position(start);
+    }
+
+    private void hand(ByteBuffer buf) throws InterruptedException {
+        ready.put(buf);
+        conn.resume();
+        // A release that drained before this put would leave buf behind
+        if (released) drain();
+    }
+
+    private void drain() {
+        for (ByteBuffer buf; (buf = ready.poll()) != null; ) BufferPool.release(buf);
+    }
+
+    public void release() {
+        released = true;
+        if (producer != null) producer.interrupt();
+        drain();
+        if (out != null) BufferPool.release(out);
+        out = null;
+    }
+}
@@ -1,109 +1,65 @@
 package server.http;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Scanner;
-
-public class ClientHandler implements Runnable{
-    private Socket clientSocket;
-    final private InputStream in;
-    final private OutputStream out;
-    final private Scanner s;
-
-    public ClientHandler(Socket socket) throws IOException {
-        clientSocket = socket;
-        in =  clientSocket.getInputStream();
-        out = clientSocket.getOutputStream();
-        s = new Scanner(in, "UTF-8");
+import java.nio.ByteBuffer;
+
+import server.metrics.Histogram;
+import server.metrics.Metrics;
+import server.reactor.Connection;
+import server.reactor.Handler;
+
+public class ClientHandler implements Handler {
+    final private static Histogram PARSE_TIME = Metrics.histogram("jess_http_parse_seconds",
+        "Time spent parsing each request's head, summed over the reads it arrived in");
+    final private static byte[] NOT_FOUND = "HTTP/1.1 404 Not Found\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n".getBytes();
+
+    final private RequestParser parser = new RequestParser();
+    final private Router router;
+    final private Router.Params params = new Router.Params();
+    // Parsing time of the request in progress so far
+    private long parseNanos;
+
+    public ClientHandler(Router router) {
+        this.router = router;
     }
 
-    public void run() {
-        while (true) {
-            try {
-                // System.out.println();
-                handleReq(clientSocket);
-            } catch (IOException io) {
-                System.out.println("Socket IO (or File IO) failed in ClientHandler");
+    public void onRead(Connection conn, ByteBuffer in) throws IOException {
+        while (conn.isOpen()) {
+            long start = System.nanoTime();
+            RequestParser.Result result = parser.parse(in);
+            parseNanos += System.nanoTime() - start;
+
+            switch (result) {
+                case DONE:
+                    PARSE_TIME.record(parseNanos);
+                    parseNanos = 0;
+                    Request req = parser.request();
+                    router.match(req, params).handle(conn, req, params);
+                    // Upgraded, the rest of in belongs to the new protocol
+                    if (conn.handler() != this) return;
+                    break;
+                case BAD_REQUEST:
+                    sendError(conn, "400 Bad Request");
+                    return;
+                case HEAD_TOO_LARGE:
+                    sendError(conn, "431 Request Header Fields Too Large");
+                    return;
+                case BODY_TOO_LARGE:
+                    sendError(conn, "413 Content Too Large");
+                    return;
+                case INCOMPLETE:
+                    return;
             }
         }
     }
 
-    private void handleReq(Socket client) throws IOException {
-        // System.out.println(in.available());
-        if (in.available() < 4) return;
-        String data = s.useDelimiter("\\r\\n\\r\\n").next();
-        Request req = new Request(data);
-
-        // String rawData = new String(in.readAllBytes());
-        // System.out.println(rawData);
-        // String[] tokens = rawData.split("\r\n\r\n");
-        // System.out.println(tokens[0]);
-        // Request req = new Request(tokens[0]);
-        // System.out.println("request head: " +  req.showHead());
-
-        if (in.available() > 0) {
-            req.setBody(in.readAllBytes());
-        }
-
-        // System.out.println(req.uri + " from port " + clientSocket.getPort());
-
-        if ("/".equals(req.uri)) {
-            String body = getResource("chessboard.html");
-            out.write("HTTP/1.1 200 OK\r\n".getBytes());
-            out.write("Connection: Keep-Alive\r\n".getBytes());
-            out.write("Content-Type: text/html\r\n".getBytes());
-            out.write(("Content-Length: " + body.length() + "\r\n").getBytes());
-            out.write("\r\n".getBytes());
-            out.write(body.getBytes());
-            out.flush();
-
-        } else if (req.uri.endsWith(".ico")) {
-            out.write("HTTP/1.1 404 Not Found\r\n".getBytes());
-            out.write("\r\n".getBytes());
-            out.flush();
-
-        } else {
-            String fileName = req.uri.split("/")[1];
-
-            String body = getResource(fileName);
-            String type = getType(fileName);
-            // System.out.println();
-            out.write("HTTP/1.1 200 OK\r\n".getBytes());
-            out.write("Connection: Keep-Alive\r\n".getBytes());
-            out.write(("Content-Type: " + type + "\r\n").getBytes());
-            out.write(("Content-Length: " + body.length() + "\r\n").getBytes());
-            out.write("\r\n".getBytes());
-            out.write(body.getBytes());
-            out.flush();
-        }
-    }
-
-    private String getResource(String name) throws IOException{
-        // System.out.println(name);
-        String content;
-        String root = "client/";
-        Path filePath = Paths.get(root + name);
-        // if (Files.notExists(filePath, null)) {
-            
-        // }
-        content = Files.readString(filePath);
-        // System.out.println(content);
-        return content;
+    private void sendError(Connection conn, String status) {
+        String resp = "HTTP/1.1 " + status + "\r\nConnection: close\r\nContent-Length: 0\r\n\r\n";
+        conn.send(ByteBuffer.wrap(resp.getBytes()));
+        conn.closeAfterFlush();
     }
 
-    private String getType(String name) {
-        String type = name.split("\\.")[1];
-
-        if ("js".equals(type)) {
-            type = "javascript";
-        }
-
-        return "text/" + type;
+    static void sendNotFound(Connection conn) {
+        conn.send(ByteBuffer.wrap(NOT_FOUND));
     }
-    
 }
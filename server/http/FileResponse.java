@@ -0,0 +1,45 @@
+package server.http;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import server.log.Log;
+import server.reactor.Connection;
+import server.reactor.Outbound;
+
+// Response body sent straight from the file with FileChannel.transferTo, the bytes never enter the heap
+class FileResponse implements Outbound {
+    final private FileChannel file;
+    private long position;
+    final private long end;
+
+    FileResponse(Path path, long start, long length) throws IOException {
+        file = FileChannel.open(path, StandardOpenOption.READ);
+        position = start;
+        end = start + length;
+    }
+
+    public boolean writeTo(SocketChannel channel) throws IOException {
+        while (position < end) {
+            long n = file.transferTo(position, end - position, channel);
+            if (n <= 0) {
+                if (position >= file.size()) throw new IOException("File shrank while being sent");
+                return false;
+            }
+            position += n;
+            Connection.BYTES_WRITTEN.add(n);
+        }
+        return true;
+    }
+
+    public void release() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            Log.warn("Could not close file after sending");
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package server.http;
+
+import java.io.IOException;
+
+// Games served as PGN under /games
+public interface GameExport {
+    // The game played under id, null if there is none
+    ChunkSource game(String id) throws IOException;
+
+    // Every finished game
+    ChunkSource archive() throws IOException;
+}
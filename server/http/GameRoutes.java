@@ -0,0 +1,36 @@
+package server.http;
+
+import server.reactor.Connection;
+
+// /games/archive and /games/{id}.pgn, streamed in chunks as the client reads, whatever the number of games.
+// Finding the game and writing PGN happen off the connection's thread, see ChunkedResponse.
+final class GameRoutes {
+    private GameRoutes() {}
+
+    static void add(Router router, GameExport games) {
+        router.get("/games/archive", (conn, req, params) -> send(conn, req, games::archive, "archive"));
+        router.get("/games/{id}.pgn", (conn, req, params) -> {
+            String id = params.get("id");
+            send(conn, req, () -> games.game(id), id);
+        });
+    }
+
+    private static void send(Connection conn, Request req, ChunkedResponse.Opener opener, String name) {
+        String head = "HTTP/1.1 200 OK\r\nConnection: Keep-Alive\r\nContent-Type: application/x-chess-pgn; charset=utf-8\r\n"
+            + "Content-Disposition: attachment; filename=\"" + filename(name) + ".pgn\"\r\n"
+            + "Cache-Control: no-cache\r\nTransfer-Encoding: chunked\r\n\r\n";
+        conn.send(new ChunkedResponse(conn, opener, head.getBytes(), req.methodIs("HEAD")));
+    }
+
+    // name comes from the path before anything has looked it up, only letters, digits, '-' and '_' go into
+    // the quoted header value as they are
+    private static String filename(String name) {
+        StringBuilder out = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+            out.append(safe ? c : '_');
+        }
+        return out.toString();
+    }
+}
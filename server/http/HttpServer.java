@@ -1,47 +1,42 @@
 package server.http;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.file.Paths;
+
+import server.reactor.Reactor;
 
 public class HttpServer implements Runnable{
-    private int port;
-    private ServerSocket server;
-    private int numOfClients = 0;
+    final private static long IDLE_TIMEOUT = 60_000;
+
+    final private Reactor reactor;
+    final private StaticAssets assets = new StaticAssets(Paths.get("client"));
+    final private Router router;
 
-    public HttpServer(int port) throws IOException{
-        this.port = port;
-        server = new ServerSocket(port);
-        server.setReuseAddress(true);
+    // Serves games from games under /games as well as the client, and hands websocket upgrades
+    // on /game and /game/{id} to sockets, so everything shares one port and one connection limit.
+    // Either may be null to leave its routes out.
+    public HttpServer(int port, Reactor.Options options, GameExport games, Router.Route sockets) throws IOException{
+        router = routes(games, sockets);
+        reactor = new Reactor("http", port, IDLE_TIMEOUT, options, () -> new ClientHandler(router));
+    }
+
+    private Router routes(GameExport games, Router.Route sockets) {
+        Router router = new Router()
+            .get("/", new AssetRoute(assets, "chessboard.html"))
+            .get("/metrics", new MetricsRoute())
+            .get("/{*path}", new AssetRoute(assets, null));
+        if (games != null) GameRoutes.add(router, games);
+        if (sockets != null) router.get("/game", sockets).get("/game/{id}", sockets);
+        return router;
     }
     
     public void run(){
-        
-        try {
-            while (true) {
-                Socket client = server.accept();
-
-                try {
-                    ClientHandler clientHandler = new ClientHandler(client);
-                    Thread httpClient = new Thread(clientHandler);
-                    numOfClients++;
-                    httpClient.setName("client-" + numOfClients);
-                    httpClient.start();
-                } catch (IllegalThreadStateException e) {
-                    System.out.println("Could not start a new thread for ClientHandler");
-                } catch (IOException e) {
-                    System.out.println("Could not start a new ClientHandler");
-                }
-            }
-        } catch(IOException e) {
-            System.out.println("Could not accept an HTTP client");
-        } finally {
-                // server.stop();
-        }
-        
+        assets.start();
+        reactor.run();
     }
 
     public void stop() throws IOException {
-        server.close();
+        reactor.stop();
+        assets.stop();
     }
 }
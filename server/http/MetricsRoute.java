@@ -0,0 +1,24 @@
+package server.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import server.http.Router.Params;
+import server.metrics.Metrics;
+import server.reactor.Connection;
+
+// Everything in the metrics registry in the Prometheus text format, rendered fresh for each scrape
+class MetricsRoute implements Router.Route {
+    final private static int INITIAL_SIZE = 8 * 1024;
+
+    public void handle(Connection conn, Request req, Params params) {
+        StringBuilder text = new StringBuilder(INITIAL_SIZE);
+        Metrics.render(text);
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        String head = "HTTP/1.1 200 OK\r\nConnection: Keep-Alive\r\nContent-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+            + "Cache-Control: no-cache\r\nContent-Length: " + body.length + "\r\n\r\n";
+        conn.send(ByteBuffer.wrap(head.getBytes()));
+        if (!req.methodIs("HEAD")) conn.send(ByteBuffer.wrap(body));
+    }
+}
@@ -1,39 +1,149 @@
 package server.http;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
+// A view over the bytes collected by RequestParser, reused for every request on a connection.
+// Strings are only built when asked for.
 public class Request {
-    final public String method;
-    final public String uri;
-    final public String version;
-
-    private HashMap<String, String> headers = new HashMap<String, String>();
-    // public String body;
-    public byte[] body;
-
-    public Request(String head) {
-        String[] lines = head.split("\r\n");
-        
-        String[] tokens = lines[0].split(" ");
-        method = tokens[0];
-        uri = tokens[1];
-        version = tokens[2];
-
-        for (int i = 1; i < lines.length; i++) {
-            tokens = lines[i].split(": ");
-            headers.put(tokens[0], tokens[1]);
+    final static int MAX_HEADERS = 64;
+
+    byte[] head = new byte[1024];
+    int headLen;
+    int methodEnd;
+    int uriStart;
+    int uriEnd;
+    int versionStart;
+    int versionEnd;
+
+    // nameStart, nameEnd, valueStart, valueEnd for every header
+    final int[] headers = new int[MAX_HEADERS * 4];
+    int headerCount;
+    long contentLength = -1;
+
+    byte[] body = new byte[0];
+    int bodyLen;
+
+    private String method;
+    private String uri;
+    private String version;
+
+    Request() {}
+
+    void reset() {
+        headLen = 0;
+        headerCount = 0;
+        contentLength = -1;
+        bodyLen = 0;
+        method = null;
+        uri = null;
+        version = null;
+    }
+
+    void append(byte b) {
+        if (headLen == head.length) {
+            byte[] bigger = new byte[head.length * 2];
+            System.arraycopy(head, 0, bigger, 0, headLen);
+            head = bigger;
         }
+        head[headLen++] = b;
+    }
+
+    public String method() {
+        if (method == null) method = string(0, methodEnd);
+        return method;
+    }
+
+    public String uri() {
+        if (uri == null) uri = string(uriStart, uriEnd);
+        return uri;
+    }
+
+    // Empty when the request line had no version
+    public String version() {
+        if (version == null) version = string(versionStart, versionEnd);
+        return version;
+    }
+
+    public boolean methodIs(String value) {
+        return equals(0, methodEnd, value, false);
+    }
+
+    public boolean uriIs(String value) {
+        return equals(uriStart, uriEnd, value, false);
+    }
+
+    public boolean uriEndsWith(String suffix) {
+        int start = uriEnd - suffix.length();
+        return start >= uriStart && equals(start, uriEnd, suffix, false);
     }
 
     public String get(String key) {
-        return headers.get(key);
+        int i = find(key);
+        return i < 0 ? null : string(headers[i + 2], headers[i + 3]);
+    }
+
+    // True if the header holds token in its comma separated list, ignoring case
+    public boolean contains(String key, String token) {
+        int i = find(key);
+        if (i < 0) return false;
+
+        int start = headers[i + 2];
+        int end = headers[i + 3];
+        while (start < end) {
+            int stop = start;
+            while (stop < end && head[stop] != ',') stop++;
+
+            int from = start;
+            int to = stop;
+            while (from < to && (head[from] == ' ' || head[from] == '\t')) from++;
+            while (to > from && (head[to - 1] == ' ' || head[to - 1] == '\t')) to--;
+            if (equals(from, to, token, true)) return true;
+
+            start = stop + 1;
+        }
+        return false;
+    }
+
+    public long contentLength() {
+        return Math.max(contentLength, 0);
+    }
+
+    public ByteBuffer body() {
+        return ByteBuffer.wrap(body, 0, bodyLen).asReadOnlyBuffer();
     }
 
     public String showHead() {
-        return "%s %s %s".formatted(method, uri, version);
+        return "%s %s %s".formatted(method(), uri(), version());
+    }
+
+    private int find(String key) {
+        for (int i = 0; i < headerCount * 4; i += 4) {
+            if (equals(headers[i], headers[i + 1], key, true)) return i;
+        }
+        return -1;
+    }
+
+    boolean equals(int start, int end, String value, boolean ignoreCase) {
+        if (end - start != value.length()) return false;
+
+        for (int i = 0; i < value.length(); i++) {
+            int a = head[start + i];
+            int b = value.charAt(i);
+            if (ignoreCase) {
+                a = lower(a);
+                b = lower(b);
+            }
+            if (a != b) return false;
+        }
+        return true;
+    }
+
+    private static int lower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + 32 : c;
     }
 
-    public void setBody(byte[] body) {
-        this.body = body;
+    String string(int start, int end) {
+        return new String(head, start, end - start, StandardCharsets.ISO_8859_1);
     }
 }
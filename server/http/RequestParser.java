@@ -0,0 +1,218 @@
+package server.http;
+
+import java.nio.ByteBuffer;
+
+// Byte level HTTP/1.1 request parser. It copies the head into the reused Request as it goes,
+// so it can stop at any byte and resume when more input arrives.
+public class RequestParser {
+    public static enum Result {
+        INCOMPLETE,
+        DONE,
+        BAD_REQUEST,
+        HEAD_TOO_LARGE,
+        BODY_TOO_LARGE
+    }
+
+    final private static int MAX_HEAD = 16 * 1024;
+    final private static int MAX_BODY = 64 * 1024;
+
+    final private static int METHOD = 0;
+    final private static int URI = 1;
+    final private static int VERSION = 2;
+    final private static int REQUEST_LF = 3;
+    final private static int LINE_START = 4;
+    final private static int NAME = 5;
+    final private static int VALUE_START = 6;
+    final private static int VALUE = 7;
+    final private static int VALUE_LF = 8;
+    final private static int HEAD_LF = 9;
+    final private static int BODY = 10;
+    final private static int DONE = 11;
+    final private static int FAILED = 12;
+
+    // RFC 9110 tchar
+    final private static boolean[] TOKEN = new boolean[128];
+    static {
+        for (char c = '0'; c <= '9'; c++) TOKEN[c] = true;
+        for (char c = 'a'; c <= 'z'; c++) TOKEN[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) TOKEN[c] = true;
+        for (char c : "!#$%&'*+-.^_`|~".toCharArray()) TOKEN[c] = true;
+    }
+
+    final private Request req = new Request();
+    private int state = METHOD;
+    private int mark;
+    private int valueEnd;
+
+    public Request request() {
+        return req;
+    }
+
+    // Consumes bytes from in until a full request is parsed, an error is found or input runs out.
+    // After DONE the next call starts a new request.
+    public Result parse(ByteBuffer in) {
+        if (state == DONE) {
+            req.reset();
+            state = METHOD;
+        }
+        if (state == FAILED) return Result.BAD_REQUEST;
+
+        while (state < BODY && in.hasRemaining()) {
+            if (req.headLen == MAX_HEAD) return fail(Result.HEAD_TOO_LARGE);
+
+            byte b = in.get();
+            int pos = req.headLen;
+            req.append(b);
+
+            switch (state) {
+                case METHOD:
+                    if (b == ' ' && pos > 0) {
+                        req.methodEnd = pos;
+                        req.uriStart = pos + 1;
+                        state = URI;
+                    } else if ((b == '\r' || b == '\n') && pos == 0) {
+                        // Tolerate empty lines before the request line
+                        req.headLen = 0;
+                    } else if (!isToken(b)) {
+                        return fail(Result.BAD_REQUEST);
+                    }
+                    break;
+
+                case URI:
+                    if (b == ' ' || b == '\r') {
+                        if (pos == req.uriStart) return fail(Result.BAD_REQUEST);
+                        req.uriEnd = pos;
+                        req.versionStart = pos + 1;
+                        if (b == '\r') {
+                            req.versionStart = pos;
+                            req.versionEnd = pos;
+                            state = REQUEST_LF;
+                        } else {
+                            state = VERSION;
+                        }
+                    } else if (b < 0x21) {
+                        return fail(Result.BAD_REQUEST);
+                    }
+                    break;
+
+                case VERSION:
+                    if (b == '\r') {
+                        req.versionEnd = pos;
+                        state = REQUEST_LF;
+                    } else if (b < 0x21) {
+                        return fail(Result.BAD_REQUEST);
+                    }
+                    break;
+
+                case REQUEST_LF:
+                case VALUE_LF:
+                    if (b != '\n') return fail(Result.BAD_REQUEST);
+                    state = LINE_START;
+                    break;
+
+                case LINE_START:
+                    if (b == '\r') {
+                        state = HEAD_LF;
+                    } else if (isToken(b)) {
+                        mark = pos;
+                        state = NAME;
+                    } else {
+                        return fail(Result.BAD_REQUEST);
+                    }
+                    break;
+
+                case NAME:
+                    if (b == ':') {
+                        if (req.headerCount == Request.MAX_HEADERS) return fail(Result.HEAD_TOO_LARGE);
+                        int i = req.headerCount * 4;
+                        req.headers[i] = mark;
+                        req.headers[i + 1] = pos;
+                        state = VALUE_START;
+                    } else if (!isToken(b)) {
+                        return fail(Result.BAD_REQUEST);
+                    }
+                    break;
+
+                case VALUE_START:
+                    if (b == ' ' || b == '\t') break;
+                    mark = pos;
+                    valueEnd = pos;
+                    state = VALUE;
+                    // fall through
+
+                case VALUE:
+                    if (b == '\r') {
+                        if (!endHeader(mark, valueEnd)) return fail(Result.BAD_REQUEST);
+                        state = VALUE_LF;
+                    } else if ((b < 0x20 && b != '\t') || b == 0x7f) {
+                        return fail(Result.BAD_REQUEST);
+                    } else if (b != ' ' && b != '\t') {
+                        valueEnd = pos + 1;
+                    }
+                    break;
+
+                case HEAD_LF:
+                    if (b != '\n') return fail(Result.BAD_REQUEST);
+                    if (req.contentLength > MAX_BODY) return fail(Result.BODY_TOO_LARGE);
+                    if (req.contentLength > 0) {
+                        if (req.body.length < req.contentLength) {
+                            req.body = new byte[(int) req.contentLength];
+                        }
+                        state = BODY;
+                    } else {
+                        state = DONE;
+                        return Result.DONE;
+                    }
+                    break;
+            }
+        }
+
+        if (state == BODY) {
+            int n = (int) Math.min(in.remaining(), req.contentLength - req.bodyLen);
+            in.get(req.body, req.bodyLen, n);
+            req.bodyLen += n;
+
+            if (req.bodyLen == req.contentLength) {
+                state = DONE;
+                return Result.DONE;
+            }
+        }
+
+        return Result.INCOMPLETE;
+    }
+
+    private boolean endHeader(int valueStart, int valueEnd) {
+        int i = req.headerCount * 4;
+        req.headers[i + 2] = valueStart;
+        req.headers[i + 3] = valueEnd;
+
+        int nameStart = req.headers[i];
+        int nameEnd = req.headers[i + 1];
+        if (req.equals(nameStart, nameEnd, "Content-Length", true)) {
+            long length = 0;
+            if (valueStart == valueEnd || valueEnd - valueStart > 18) return false;
+            for (int j = valueStart; j < valueEnd; j++) {
+                byte d = req.head[j];
+                if (d < '0' || d > '9') return false;
+                length = length * 10 + (d - '0');
+            }
+            if (req.contentLength >= 0 && req.contentLength != length) return false;
+            req.contentLength = length;
+        } else if (req.equals(nameStart, nameEnd, "Transfer-Encoding", true)) {
+            // Chunked request bodies are not supported
+            return false;
+        }
+
+        req.headerCount++;
+        return true;
+    }
+
+    private Result fail(Result result) {
+        state = FAILED;
+        return result;
+    }
+
+    private static boolean isToken(byte b) {
+        return b > 0 && TOKEN[b];
+    }
+}
@@ -0,0 +1,234 @@
+package server.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import server.reactor.Connection;
+
+// Routes requests by path through a trie of segments, built once before the server starts.
+// A pattern segment is a literal, a parameter {name} with an optional literal suffix ({id}.pgn),
+// or {*name} for the rest of the path. Literals are tried first, then parameters, then the rest,
+// backing up when a branch does not lead to a route. Matching works on the request's bytes and
+// fills a Params the caller reuses, so it allocates nothing. The query string is ignored.
+// Paths with . or .. segments, backslashes, NULs or encoded dots and slashes are refused with 400.
+public class Router {
+    final private static int MAX_PARAMS = 8;
+
+    public interface Route {
+        void handle(Connection conn, Request req, Params params) throws IOException;
+    }
+
+    // Path parameters of the last match, strings are only built when asked for
+    public static class Params {
+        final private String[] names = new String[MAX_PARAMS];
+        final private int[] bounds = new int[MAX_PARAMS * 2];
+        private int count;
+        private Request req;
+
+        public String get(String name) {
+            for (int i = 0; i < count; i++) {
+                if (names[i].equals(name)) return req.string(bounds[i * 2], bounds[i * 2 + 1]);
+            }
+            return null;
+        }
+
+        private void set(int i, String name, int start, int end) {
+            names[i] = name;
+            bounds[i * 2] = start;
+            bounds[i * 2 + 1] = end;
+            count = i + 1;
+        }
+    }
+
+    final private static Route NOT_FOUND = status("404 Not Found", "");
+    final private static Route BAD_PATH = status("400 Bad Request", "");
+
+    private static class Node {
+        // A literal segment, or the suffix after a parameter
+        final private byte[] label;
+        // Null for literal segments
+        final private String param;
+        final private boolean rest;
+        private Node[] literals = new Node[0];
+        private Node[] params = new Node[0];
+        private Node rester;
+        private String[] methods = new String[0];
+        private Route[] routes = new Route[0];
+        private Route notAllowed;
+
+        Node(byte[] label, String param, boolean rest) {
+            this.label = label;
+            this.param = param;
+            this.rest = rest;
+        }
+    }
+
+    final private Node root = new Node(new byte[0], null, false);
+
+    public Router get(String pattern, Route route) {
+        return add("GET", pattern, route);
+    }
+
+    // HEAD requests go to the GET route unless one is added for HEAD
+    public Router add(String method, String pattern, Route route) {
+        if (!pattern.startsWith("/")) throw new IllegalArgumentException("Pattern must start with /: " + pattern);
+
+        Node node = root;
+        int params = 0;
+        for (String segment : pattern.substring(1).split("/")) {
+            if (segment.isEmpty()) continue;
+            if (node.rest) throw new IllegalArgumentException("Nothing can follow {*...}: " + pattern);
+            if (segment.startsWith("{")) {
+                if (++params > MAX_PARAMS) throw new IllegalArgumentException("Too many parameters: " + pattern);
+                node = param(node, segment, pattern);
+            } else {
+                node = literal(node, segment);
+            }
+        }
+
+        for (String existing : node.methods) {
+            if (existing.equals(method)) throw new IllegalArgumentException(method + " " + pattern + " added twice");
+        }
+        node.methods = append(node.methods, method);
+        node.routes = append(node.routes, route);
+
+        String allow = String.join(", ", node.methods);
+        if (Arrays.asList(node.methods).contains("GET") && !Arrays.asList(node.methods).contains("HEAD")) {
+            allow += ", HEAD";
+        }
+        node.notAllowed = status("405 Method Not Allowed", "Allow: " + allow + "\r\n");
+        return this;
+    }
+
+    // Always a route to run, the one matched or one sending 400, 404 or 405
+    public Route match(Request req, Params params) {
+        params.req = req;
+        params.count = 0;
+
+        byte[] b = req.head;
+        int start = req.uriStart;
+        int end = start;
+        while (end < req.uriEnd && b[end] != '?' && b[end] != '#') end++;
+        if (end == start || b[start] != '/' || !isSafe(b, start, end)) return BAD_PATH;
+
+        Node node = match(root, b, start + 1, end, params, 0);
+        if (node == null) return NOT_FOUND;
+
+        Route get = null;
+        for (int i = 0; i < node.methods.length; i++) {
+            if (req.methodIs(node.methods[i])) return node.routes[i];
+            if (node.methods[i].equals("GET")) get = node.routes[i];
+        }
+        if (get != null && req.methodIs("HEAD")) return get;
+        return node.notAllowed;
+    }
+
+    // pos is the start of the next segment, or end when the path is used up
+    private static Node match(Node node, byte[] b, int pos, int end, Params params, int depth) {
+        if (pos >= end) return node.routes.length > 0 ? node : null;
+
+        int segEnd = pos;
+        while (segEnd < end && b[segEnd] != '/') segEnd++;
+        int next = segEnd == end ? end : segEnd + 1;
+
+        for (Node child : node.literals) {
+            if (!equals(child.label, b, pos, segEnd)) continue;
+            Node found = match(child, b, next, end, params, depth);
+            if (found != null) return found;
+            // Anything the failed branch captured is not this path's
+            params.count = depth;
+        }
+
+        for (Node child : node.params) {
+            int valueEnd = segEnd - child.label.length;
+            if (valueEnd <= pos || !equals(child.label, b, valueEnd, segEnd)) continue;
+            params.set(depth, child.param, pos, valueEnd);
+            Node found = match(child, b, next, end, params, depth + 1);
+            if (found != null) return found;
+            params.count = depth;
+        }
+
+        if (node.rester != null && node.rester.routes.length > 0) {
+            params.set(depth, node.rester.param, pos, end);
+            return node.rester;
+        }
+        return null;
+    }
+
+    private static Node literal(Node node, String segment) {
+        byte[] label = segment.getBytes();
+        for (Node child : node.literals) {
+            if (Arrays.equals(child.label, label)) return child;
+        }
+        Node child = new Node(label, null, false);
+        node.literals = append(node.literals, child);
+        return child;
+    }
+
+    private static Node param(Node node, String segment, String pattern) {
+        int close = segment.indexOf('}');
+        if (close < 2) throw new IllegalArgumentException("Bad parameter in " + pattern);
+
+        if (segment.charAt(1) == '*') {
+            if (close != segment.length() - 1) throw new IllegalArgumentException("{*...} takes a whole segment: " + pattern);
+            String name = segment.substring(2, close);
+            if (node.rester == null) node.rester = new Node(new byte[0], name, true);
+            if (!node.rester.param.equals(name)) throw new IllegalArgumentException("Conflicting names in " + pattern);
+            return node.rester;
+        }
+
+        String name = segment.substring(1, close);
+        byte[] suffix = segment.substring(close + 1).getBytes();
+        for (Node child : node.params) {
+            if (!Arrays.equals(child.label, suffix)) continue;
+            if (!child.param.equals(name)) throw new IllegalArgumentException("Conflicting names in " + pattern);
+            return child;
+        }
+
+        // Longer suffixes are more specific, they are tried first
+        Node child = new Node(suffix, name, false);
+        Node[] params = append(node.params, child);
+        Arrays.sort(params, (x, y) -> y.label.length - x.label.length);
+        node.params = params;
+        return child;
+    }
+
+    private static boolean isSafe(byte[] b, int start, int end) {
+        int segStart = start + 1;
+        for (int i = start + 1; i <= end; i++) {
+            if (i == end || b[i] == '/') {
+                int len = i - segStart;
+                if (len == 1 && b[segStart] == '.') return false;
+                if (len == 2 && b[segStart] == '.' && b[segStart + 1] == '.') return false;
+                segStart = i + 1;
+                continue;
+            }
+            if (b[i] == '\\' || b[i] == 0) return false;
+            if (b[i] == '%' && i + 2 < end) {
+                int hi = b[i + 1];
+                int lo = b[i + 2] | 0x20;
+                if (hi == '2' && (lo == 'e' || lo == 'f')) return false;
+                if (hi == '5' && lo == 'c') return false;
+                if (hi == '0' && b[i + 2] == '0') return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] label, byte[] b, int start, int end) {
+        return Arrays.equals(label, 0, label.length, b, start, end);
+    }
+
+    private static <T> T[] append(T[] array, T item) {
+        T[] bigger = Arrays.copyOf(array, array.length + 1);
+        bigger[array.length] = item;
+        return bigger;
+    }
+
+    private static Route status(String status, String headers) {
+        byte[] resp = ("HTTP/1.1 " + status + "\r\nConnection: Keep-Alive\r\n" + headers
+            + "Content-Length: 0\r\n\r\n").getBytes();
+        return (conn, req, params) -> conn.send(ByteBuffer.wrap(resp));
+    }
+}
@@ -0,0 +1,277 @@
+package server.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import server.log.Log;
+
+// Files under root are read, encoded and gzipped once, then served from memory until they change on disk.
+// Larger files are only described here and sent from disk by FileResponse, or from a mapping once hot.
+public class StaticAssets implements Runnable {
+    final private static long MAX_CACHED = 256 * 1024;
+    final private static long MAX_MAPPED = 64 * 1024 * 1024;
+    final private static int HOT_HITS = 8;
+
+    final private Path root;
+    final private ConcurrentHashMap<String, Asset> cache = new ConcurrentHashMap<>();
+    final private ConcurrentHashMap<WatchKey, Path> watched = new ConcurrentHashMap<>();
+    private WatchService watcher;
+
+    static class Asset {
+        final String type;
+        final String etag;
+        final String gzipEtag;
+        final String lastModified;
+        final String cacheControl;
+        final byte[] body;
+        final byte[] gzip;
+        final byte[] head;
+        final byte[] gzipHead;
+        final byte[] notModified;
+        final byte[] gzipNotModified;
+        // Only set for files too large to cache, body is null for those
+        final Path path;
+        final long size;
+        final private AtomicInteger hits = new AtomicInteger();
+        private volatile ByteBuffer mapped;
+
+        Asset(String type, String cacheControl, byte[] body, byte[] gzip, long modified) {
+            this.type = type;
+            this.cacheControl = cacheControl;
+            this.body = body;
+            this.gzip = gzip;
+            path = null;
+            size = body.length;
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            String tag = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length);
+            etag = "\"" + tag + "\"";
+            gzipEtag = "\"" + tag + "-gz\"";
+            lastModified = httpDate(modified);
+
+            head = head("200 OK", etag, body.length, false, "");
+            notModified = head("304 Not Modified", etag, -1, false, "");
+            gzipHead = gzip == null ? null : head("200 OK", gzipEtag, gzip.length, true, "");
+            gzipNotModified = gzip == null ? null : head("304 Not Modified", gzipEtag, -1, true, "");
+        }
+
+        Asset(String type, String cacheControl, Path path, long size, long modified) {
+            this.type = type;
+            this.cacheControl = cacheControl;
+            this.path = path;
+            this.size = size;
+            body = null;
+            gzip = null;
+            head = null;
+            gzipHead = null;
+            gzipNotModified = null;
+
+            etag = "\"" + Long.toHexString(modified) + "-" + Long.toHexString(size) + "\"";
+            gzipEtag = null;
+            lastModified = httpDate(modified);
+            notModified = head("304 Not Modified", etag, -1, false, "");
+        }
+
+        // A read-only mapping of the file once it has been asked for often enough, null before that
+        ByteBuffer mapped() throws IOException {
+            if (mapped != null || size > MAX_MAPPED || hits.incrementAndGet() < HOT_HITS) {
+                return mapped;
+            }
+            synchronized (this) {
+                if (mapped == null) {
+                    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                        mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    }
+                }
+            }
+            return mapped;
+        }
+
+        // extra holds complete header lines, e.g. a Content-Range
+        byte[] head(String status, String tag, long length, boolean gzip, String extra) {
+            StringBuilder head = new StringBuilder(256)
+                .append("HTTP/1.1 ").append(status).append("\r\n")
+                .append("Connection: Keep-Alive\r\n")
+                .append("Content-Type: ").append(type).append("\r\n")
+                .append("Cache-Control: ").append(cacheControl).append("\r\n")
+                .append("ETag: ").append(tag).append("\r\n")
+                .append("Last-Modified: ").append(lastModified).append("\r\n");
+            if (this.gzip != null) {
+                head.append("Vary: Accept-Encoding\r\n");
+            }
+            if (path != null) {
+                head.append("Accept-Ranges: bytes\r\n");
+            }
+            if (gzip && length >= 0) {
+                head.append("Content-Encoding: gzip\r\n");
+            }
+            if (length >= 0) {
+                head.append("Content-Length: ").append(length).append("\r\n");
+            }
+            return head.append(extra).append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    public StaticAssets(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    // Watches root for changes, assets are still served without it but never reloaded
+    public void start() {
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            try (Stream<Path> dirs = Files.walk(root)) {
+                for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                    watch(dir);
+                }
+            }
+            Thread thread = new Thread(this);
+            thread.setName("static-assets-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException e) {
+            Log.warn("Could not watch {}, static assets will not be reloaded", root);
+        }
+    }
+
+    // Returns null when there is no such file
+    Asset get(String name) throws IOException {
+        Asset asset = cache.get(name);
+        if (asset != null) return asset;
+
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root) || !Files.isRegularFile(path)) return null;
+
+        // Read under the map's lock for name, so the watcher's remove for a change made during the read
+        // waits for the stale asset to go in and then drops it
+        try {
+            return cache.computeIfAbsent(name, key -> load(key, path));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Asset load(String name, Path path) {
+        try {
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            long size = Files.size(path);
+            if (size > MAX_CACHED) {
+                return new Asset(getType(name), getCacheControl(name), path, size, modified);
+            }
+
+            byte[] body = Files.readAllBytes(path);
+            byte[] gzip = gzip(body);
+            if (gzip.length >= body.length) gzip = null;
+            return new Asset(getType(name), getCacheControl(name), body, gzip, modified);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = watched.get(key);
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                        cache.clear();
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        watch(changed);
+                    }
+                    cache.remove(root.relativize(changed).toString().replace('\\', '/'));
+                }
+
+                if (!key.reset()) watched.remove(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        } catch (IOException e) {
+            Log.warn("Static asset watcher failed, clearing cache");
+            cache.clear();
+        }
+    }
+
+    private void watch(Path dir) throws IOException {
+        WatchKey key = dir.register(watcher,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+        watched.put(key, dir);
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 32);
+        try (GZIPOutputStream zip = new GZIPOutputStream(out)) {
+            zip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    static String httpDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+            ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    private static String getType(String name) {
+        String type = name.substring(name.lastIndexOf('.') + 1);
+
+        switch (type) {
+            case "html", "css":
+                break;
+            case "js":
+                type = "javascript";
+                break;
+            case "png", "gif", "webp":
+                return "image/" + type;
+            case "svg":
+                return "image/svg+xml";
+            case "ico":
+                return "image/x-icon";
+            case "json":
+                return "application/json";
+            case "pgn":
+                return "application/x-chess-pgn";
+            default:
+                return "application/octet-stream";
+        }
+
+        return "text/" + type + "; charset=" + StandardCharsets.UTF_8.name().toLowerCase();
+    }
+
+    // The page itself is always revalidated, the files it pulls in may be reused for a minute
+    private static String getCacheControl(String name) {
+        return name.endsWith(".html") ? "no-cache" : "public, max-age=60";
+    }
+
+    public void stop() throws IOException {
+        if (watcher != null) watcher.close();
+    }
+}
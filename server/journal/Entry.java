@@ -0,0 +1,101 @@
+package server.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+// One journal entry, always SIZE bytes, big endian:
+//   type:u8 idLength:u8 ply:u16 value:u16 reserved:u16 sequence:u64 game:u64 time:u32 id:32 bytes crc:u32
+// value is the move for MOVE and the Board.Status ordinal for END. game is the sequence number of the
+// game's first record, so two games played under the same id over time never mix.
+// The CRC covers everything before it, a torn or never written record fails it and ends a segment.
+public class Entry {
+    final public static int SIZE = 64;
+    final public static byte MOVE = 1;
+    final public static byte END = 2;
+
+    final private static int ID_OFFSET = 28;
+    final private static int MAX_ID = 32;
+    final private static int CRC_OFFSET = 60;
+
+    // Raw bytes of the last record read or written
+    final byte[] bytes = new byte[SIZE];
+    final private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    final private CRC32 crc = new CRC32();
+
+    private byte type;
+    private int ply;
+    private int value;
+    private long sequence;
+    private long game;
+    private long time;
+    private String id;
+
+    public byte type() {
+        return type;
+    }
+
+    public int ply() {
+        return ply;
+    }
+
+    public int value() {
+        return value;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public long game() {
+        return game;
+    }
+
+    // Seconds since the epoch
+    public long time() {
+        return time;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    // Encodes into bytes without allocating, ids are at most 32 ASCII characters
+    void encode(byte type, String id, long sequence, long game, int ply, int value, long time) {
+        int length = Math.min(id.length(), MAX_ID);
+        buffer.put(0, type);
+        buffer.put(1, (byte) length);
+        buffer.putShort(2, (short) ply);
+        buffer.putShort(4, (short) value);
+        buffer.putShort(6, (short) 0);
+        buffer.putLong(8, sequence);
+        buffer.putLong(16, game);
+        buffer.putInt(24, (int) time);
+        for (int i = 0; i < MAX_ID; i++) {
+            bytes[ID_OFFSET + i] = i < length ? (byte) id.charAt(i) : 0;
+        }
+        crc.reset();
+        crc.update(bytes, 0, CRC_OFFSET);
+        buffer.putInt(CRC_OFFSET, (int) crc.getValue());
+    }
+
+    // Reads the record at pos, false when there is no valid record there
+    boolean decode(ByteBuffer in, int pos) {
+        in.get(pos, bytes);
+        crc.reset();
+        crc.update(bytes, 0, CRC_OFFSET);
+        if (buffer.getInt(CRC_OFFSET) != (int) crc.getValue()) return false;
+
+        type = bytes[0];
+        int length = bytes[1];
+        if (type != MOVE && type != END || length < 1 || length > MAX_ID) return false;
+
+        ply = Short.toUnsignedInt(buffer.getShort(2));
+        value = Short.toUnsignedInt(buffer.getShort(4));
+        sequence = buffer.getLong(8);
+        game = buffer.getLong(16);
+        time = Integer.toUnsignedLong(buffer.getInt(24));
+        id = new String(bytes, ID_OFFSET, length, StandardCharsets.US_ASCII);
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+package server.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Reads journal files front to back a chunk at a time, so files of any size take the same memory.
+// Each file stops at its first entry that is not valid, then the next one is read.
+// All the files are opened up front, a compaction replacing or deleting one later does not change what is read.
+public class EntryReader implements Closeable {
+    final private List<FileChannel> channels = new ArrayList<>();
+    final private ByteBuffer in = ByteBuffer.allocate(Entry.SIZE * 1024);
+    private int current = 0;
+
+    EntryReader(Path path) throws IOException {
+        this(List.of(path));
+    }
+
+    // Files deleted since they were listed are skipped
+    EntryReader(List<Path> paths) throws IOException {
+        try {
+            for (Path path : paths) {
+                try {
+                    channels.add(FileChannel.open(path, StandardOpenOption.READ));
+                } catch (NoSuchFileException e) {
+                    // compacted away meanwhile
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        in.flip();
+    }
+
+    // Decodes the next entry into entry, false at the end
+    public boolean next(Entry entry) throws IOException {
+        while (current < channels.size()) {
+            if (in.remaining() < Entry.SIZE) {
+                in.compact();
+                FileChannel channel = channels.get(current);
+                while (in.position() < Entry.SIZE && channel.read(in) > 0) {}
+                in.flip();
+            }
+            if (in.remaining() >= Entry.SIZE && entry.decode(in, in.position())) {
+                in.position(in.position() + Entry.SIZE);
+                return true;
+            }
+            current++;
+            in.clear().flip();
+        }
+        return false;
+    }
+
+    public void close() throws IOException {
+        IOException failed = null;
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failed = e;
+            }
+        }
+        if (failed != null) throw failed;
+    }
+}
@@ -0,0 +1,264 @@
+package server.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import server.log.Log;
+
+// Append-only log of accepted moves, a fixed size Entry per move in memory-mapped segment files.
+// Appending copies the record into the mapping, no syscall. A background thread forces dirty segments
+// every FLUSH_INTERVAL ms, so every move in that window shares one fsync and a crash loses at most that window.
+// Once COMPACT_AFTER segments are sealed they are compacted on a thread of their own, so flushes keep their
+// cadence meanwhile: records of finished games move to the archive, games still in progress are rewritten
+// into one segment, so replay time follows the games in progress.
+public class Journal implements Runnable {
+    final private static int SEGMENT_RECORDS = 1 << 17;
+    final private static int COMPACT_AFTER = 4;
+    final private static long FLUSH_INTERVAL = 10;
+    final private static String SUFFIX = ".log";
+
+    // Replay hands every MOVE record to this, in the order they were appended
+    public interface Replayer {
+        void onMove(String id, long game, int ply, int move, long time);
+    }
+
+    final private Path dir;
+    final private Path archive;
+    final private Entry record = new Entry();
+    // Sealed segments, oldest first, shared with the compactor
+    final private List<Path> sealed = new ArrayList<>();
+    // Sealed mappings still to be forced to disk
+    final private ConcurrentLinkedQueue<MappedByteBuffer> sealing = new ConcurrentLinkedQueue<>();
+
+    private MappedByteBuffer segment;
+    private Path segmentPath;
+    private int position;
+    private long sequence = 0;
+    private boolean dirty = false;
+    private volatile boolean running = false;
+    private Thread syncer;
+    private ExecutorService compactor;
+    // Set by the syncer when it hands the compactor a run, cleared when the run is over
+    private volatile boolean compacting = false;
+
+    public Journal(Path dir) throws IOException {
+        this.dir = dir;
+        archive = dir.resolve("archive" + SUFFIX);
+        Files.createDirectories(dir);
+    }
+
+    // Call once before start(), it also finds where the sequence numbers continue.
+    // Segments without a single record are deleted, the next one opened could otherwise reuse the name.
+    public void replay(Replayer replayer) throws IOException {
+        Entry in = new Entry();
+        for (Path path : segments()) {
+            long before = sequence;
+            scan(path, in, r -> {
+                sequence = Math.max(sequence, r.sequence() + 1);
+                if (r.type() == Entry.MOVE) replayer.onMove(r.id(), r.game(), r.ply(), r.value(), r.time());
+            });
+            if (sequence == before) {
+                Files.delete(path);
+            } else {
+                sealed.add(path);
+            }
+        }
+    }
+
+    // Appends go to a fresh segment, whatever the last run left half written stays behind
+    public synchronized void start() throws IOException {
+        open();
+        running = true;
+        syncer = new Thread(this, "journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        compactor = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("journal-compact").daemon().factory());
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+    }
+
+    // Returns the record's sequence number, a game < 0 starts a new game known by that number.
+    // Returns -1 if the journal is not writable.
+    // One lock for every room: an append is a 64 byte copy into the mapping, held far shorter than
+    // per-room segments or a lock-free position would be worth.
+    public synchronized long append(byte type, String id, long game, int ply, int value) {
+        if (segment == null) return -1;
+        if (position == SEGMENT_RECORDS && !roll()) return -1;
+
+        long seq = sequence++;
+        record.encode(type, id, seq, game < 0 ? seq : game, ply, value, System.currentTimeMillis() / 1000);
+        segment.put(position * Entry.SIZE, record.bytes);
+        position++;
+        dirty = true;
+        return seq;
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+
+            if (compacting) continue;
+            boolean compact;
+            synchronized (sealed) {
+                compact = sealed.size() >= COMPACT_AFTER;
+            }
+            if (compact) {
+                compacting = true;
+                compactor.execute(() -> {
+                    try {
+                        compact();
+                    } finally {
+                        compacting = false;
+                    }
+                });
+            }
+        }
+    }
+
+    // Every entry on disk: finished games in the order they were archived, then the segments oldest first.
+    // A game's entries come in ply order and end with its END, but games can interleave, and a compaction
+    // cut short can leave a game's entries twice. Within the archive and across the segments, an END's
+    // sequence is higher than any END before it, except for those copies.
+    public EntryReader openAll() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.exists(archive)) files.add(archive);
+        files.addAll(segments());
+        return new EntryReader(files);
+    }
+
+    public void stop() {
+        running = false;
+        if (syncer != null) syncer.interrupt();
+        if (compactor != null) compactor.shutdown();
+        flush();
+    }
+
+    private void flush() {
+        MappedByteBuffer current;
+        synchronized (this) {
+            current = dirty ? segment : null;
+            dirty = false;
+        }
+        for (MappedByteBuffer old; (old = sealing.poll()) != null; ) old.force();
+        if (current != null) current.force();
+    }
+
+    private boolean roll() {
+        sealing.add(segment);
+        synchronized (sealed) {
+            sealed.add(segmentPath);
+        }
+        try {
+            open();
+            return true;
+        } catch (IOException e) {
+            Log.error("Journal roll failed, moves are no longer journaled: {}", e);
+            segment = null;
+            return false;
+        }
+    }
+
+    private void open() throws IOException {
+        segmentPath = dir.resolve(String.format("segment-%019d%s", sequence, SUFFIX));
+        try (FileChannel channel = FileChannel.open(segmentPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_RECORDS * Entry.SIZE);
+        }
+        position = 0;
+    }
+
+    // Rewrites the sealed segments into the oldest one. Finished games are appended to the archive first,
+    // and the compacted file replaces the oldest segment with an atomic rename before the rest are deleted.
+    // A crash in between can leave records twice, readers skip plies they already have.
+    private void compact() {
+        List<Path> victims;
+        synchronized (sealed) {
+            victims = new ArrayList<>(sealed);
+        }
+
+        Entry in = new Entry();
+        HashSet<Long> finished = new HashSet<>();
+        Path tmp = dir.resolve(victims.get(0).getFileName() + ".tmp");
+        try {
+            for (Path path : victims) {
+                scan(path, in, r -> {
+                    if (r.type() == Entry.END) finished.add(r.game());
+                });
+            }
+
+            try (FileChannel active = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 FileChannel done = FileChannel.open(archive, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer activeOut = ByteBuffer.allocate(Entry.SIZE * 1024);
+                ByteBuffer doneOut = ByteBuffer.allocate(Entry.SIZE * 1024);
+                for (Path path : victims) {
+                    scan(path, in, r -> {
+                        boolean isDone = finished.contains(r.game());
+                        ByteBuffer out = isDone ? doneOut : activeOut;
+                        out.put(r.bytes);
+                        if (!out.hasRemaining()) drain(out, isDone ? done : active);
+                    });
+                }
+                drain(activeOut, active);
+                drain(doneOut, done);
+                done.force(true);
+                active.force(true);
+            }
+
+            Files.move(tmp, victims.get(0), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (Path path : victims.subList(1, victims.size())) Files.delete(path);
+            synchronized (sealed) {
+                sealed.removeAll(victims.subList(1, victims.size()));
+            }
+        } catch (IOException | UncheckedIOException e) {
+            Log.error("Journal compaction failed: {}", e);
+        }
+    }
+
+    private static void drain(ByteBuffer out, FileChannel channel) {
+        out.flip();
+        try {
+            while (out.hasRemaining()) channel.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        out.clear();
+    }
+
+    // Visits valid entries from the start of the file, stopping at the first that is not
+    private static void scan(Path path, Entry entry, Consumer<Entry> visitor) throws IOException {
+        try (EntryReader reader = new EntryReader(path)) {
+            while (reader.next(entry)) visitor.accept(entry);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(p -> p.getFileName().toString().startsWith("segment-"))
+                .filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                .sorted()
+                .toList();
+        }
+    }
+}
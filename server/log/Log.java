@@ -0,0 +1,257 @@
+package server.log;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import server.metrics.Metrics;
+
+// Logging off the caller's thread. A call below the level returns before doing anything, otherwise it claims
+// a slot in a fixed ring with one CAS and stores the format and its arguments as they are. The "log-writer"
+// thread turns them into text, {} standing for each argument in turn, and writes in batches to stdout
+// or a file. When the ring is full messages are dropped and counted rather than making the caller wait.
+public final class Log {
+    public static enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    final private static int CAPACITY = 1 << 14;
+    final private static int MASK = CAPACITY - 1;
+    final private static int MAX_ARGS = 3;
+    final private static int SPINS = 100;
+
+    // Bounded MPSC ring: a slot is free for the producer at position p when its sequence is p,
+    // and ready for the writer once the producer has set it to p + 1
+    final private static AtomicLongArray SEQUENCE = new AtomicLongArray(CAPACITY);
+    final private static AtomicLong TAIL = new AtomicLong();
+    final private static Level[] LEVELS = new Level[CAPACITY];
+    final private static long[] TIMES = new long[CAPACITY];
+    final private static String[] THREADS = new String[CAPACITY];
+    final private static String[] FORMATS = new String[CAPACITY];
+    final private static Object[] ARGS = new Object[CAPACITY * MAX_ARGS];
+    final private static LongAdder DROPPED = new LongAdder();
+
+    private static volatile Level level = Level.INFO;
+    private static volatile Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 64 * 1024);
+    private static volatile boolean running = true;
+    // Set by the writer before it parks. A producer publishes and then reads it, the writer sets it and
+    // then looks at the ring again, so one of the two always sees the other and no message is left waiting.
+    private static volatile boolean sleeping = false;
+    // Writer thread only
+    private static long head;
+    private static long reportedDrops;
+
+    final private static Thread WRITER = new Thread(Log::run, "log-writer");
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) SEQUENCE.set(i, i);
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::stop));
+        Metrics.counter("jess_log_dropped_total", "", "Log messages dropped because the ring was full", DROPPED::sum);
+    }
+
+    private Log() {}
+
+    public static void setLevel(Level next) {
+        level = next;
+    }
+
+    public static boolean isEnabled(Level at) {
+        return at.compareTo(level) >= 0;
+    }
+
+    // Appends to path from now on instead of stdout
+    public static void toFile(Path path) throws IOException {
+        out = Files.newBufferedWriter(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public static long dropped() {
+        return DROPPED.sum();
+    }
+
+    public static void debug(String format) {
+        log(Level.DEBUG, format, null, null, null);
+    }
+
+    public static void debug(String format, Object a) {
+        log(Level.DEBUG, format, a, null, null);
+    }
+
+    public static void debug(String format, Object a, Object b) {
+        log(Level.DEBUG, format, a, b, null);
+    }
+
+    public static void debug(String format, Object a, Object b, Object c) {
+        log(Level.DEBUG, format, a, b, c);
+    }
+
+    public static void info(String format) {
+        log(Level.INFO, format, null, null, null);
+    }
+
+    public static void info(String format, Object a) {
+        log(Level.INFO, format, a, null, null);
+    }
+
+    public static void info(String format, Object a, Object b) {
+        log(Level.INFO, format, a, b, null);
+    }
+
+    public static void info(String format, Object a, Object b, Object c) {
+        log(Level.INFO, format, a, b, c);
+    }
+
+    public static void warn(String format) {
+        log(Level.WARN, format, null, null, null);
+    }
+
+    public static void warn(String format, Object a) {
+        log(Level.WARN, format, a, null, null);
+    }
+
+    public static void warn(String format, Object a, Object b) {
+        log(Level.WARN, format, a, b, null);
+    }
+
+    public static void warn(String format, Object a, Object b, Object c) {
+        log(Level.WARN, format, a, b, c);
+    }
+
+    public static void error(String format) {
+        log(Level.ERROR, format, null, null, null);
+    }
+
+    public static void error(String format, Object a) {
+        log(Level.ERROR, format, a, null, null);
+    }
+
+    public static void error(String format, Object a, Object b) {
+        log(Level.ERROR, format, a, b, null);
+    }
+
+    public static void error(String format, Object a, Object b, Object c) {
+        log(Level.ERROR, format, a, b, c);
+    }
+
+    private static void log(Level at, String format, Object a, Object b, Object c) {
+        if (at.compareTo(level) < 0) return;
+
+        long pos = TAIL.get();
+        int slot;
+        while (true) {
+            slot = (int) pos & MASK;
+            long seq = SEQUENCE.get(slot);
+            if (seq == pos) {
+                long witness = TAIL.compareAndExchange(pos, pos + 1);
+                if (witness == pos) break;
+                pos = witness;
+            } else if (seq < pos) {
+                // The writer has not freed this slot since the last lap, the ring is full
+                DROPPED.increment();
+                return;
+            } else {
+                pos = TAIL.get();
+            }
+        }
+
+        LEVELS[slot] = at;
+        TIMES[slot] = System.currentTimeMillis();
+        THREADS[slot] = Thread.currentThread().getName();
+        FORMATS[slot] = format;
+        ARGS[slot * MAX_ARGS] = a;
+        ARGS[slot * MAX_ARGS + 1] = b;
+        ARGS[slot * MAX_ARGS + 2] = c;
+        SEQUENCE.set(slot, pos + 1);
+        if (sleeping) LockSupport.unpark(WRITER);
+    }
+
+    private static void run() {
+        StringBuilder line = new StringBuilder(256);
+        while (running) {
+            if (drain(line)) continue;
+            // Idle: spin a little for a burst to carry on, then park until a producer or stop() wakes us
+            for (int i = 0; i < SPINS && !published(); i++) Thread.onSpinWait();
+            if (published()) continue;
+            sleeping = true;
+            if (!published() && running) LockSupport.park();
+            sleeping = false;
+        }
+        drain(line);
+    }
+
+    private static boolean published() {
+        return SEQUENCE.get((int) head & MASK) == head + 1;
+    }
+
+    // Writes everything published so far and flushes, false if there was nothing
+    private static boolean drain(StringBuilder line) {
+        Writer writer = out;
+        boolean wrote = false;
+        try {
+            while (true) {
+                int slot = (int) head & MASK;
+                if (SEQUENCE.get(slot) != head + 1) break;
+
+                line.setLength(0);
+                format(line, slot);
+                FORMATS[slot] = null;
+                ARGS[slot * MAX_ARGS] = ARGS[slot * MAX_ARGS + 1] = ARGS[slot * MAX_ARGS + 2] = null;
+                SEQUENCE.set(slot, head + CAPACITY);
+                head++;
+
+                writer.append(line);
+                wrote = true;
+            }
+
+            long drops = DROPPED.sum();
+            if (drops != reportedDrops) {
+                writer.append(Instant.now().toString()).append(" WARN  [log-writer] ")
+                    .append(String.valueOf(drops - reportedDrops)).append(" log messages dropped, the ring was full\n");
+                reportedDrops = drops;
+                wrote = true;
+            }
+            if (wrote) writer.flush();
+        } catch (IOException e) {
+            // Nowhere left to report it, the messages are lost
+        }
+        return wrote;
+    }
+
+    private static void format(StringBuilder line, int slot) {
+        line.append(Instant.ofEpochMilli(TIMES[slot])).append(' ');
+        String name = LEVELS[slot].name();
+        line.append(name);
+        for (int i = name.length(); i < 6; i++) line.append(' ');
+        line.append('[').append(THREADS[slot]).append("] ");
+
+        String format = FORMATS[slot];
+        int arg = 0;
+        int from = 0;
+        int at;
+        while (arg < MAX_ARGS && (at = format.indexOf("{}", from)) >= 0) {
+            line.append(format, from, at).append(ARGS[slot * MAX_ARGS + arg++]);
+            from = at + 2;
+        }
+        line.append(format, from, format.length()).append('\n');
+    }
+
+    private static void stop() {
+        running = false;
+        LockSupport.unpark(WRITER);
+        try {
+            WRITER.join(1000);
+        } catch (InterruptedException e) {
+            // exiting anyway
+        }
+    }
+}
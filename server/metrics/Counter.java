@@ -0,0 +1,22 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// A total that only goes up, striped so threads adding at once do not fight over one cache line
+public class Counter {
+    final private LongAdder adder = new LongAdder();
+
+    Counter() {}
+
+    public void inc() {
+        adder.increment();
+    }
+
+    public void add(long n) {
+        adder.add(n);
+    }
+
+    public long sum() {
+        return adder.sum();
+    }
+}
@@ -0,0 +1,70 @@
+package server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Latencies in nanoseconds, counted in log-linear buckets as HdrHistogram does: every power of two is split
+// into SUB buckets, so any value is off by at most 1/SUB of itself, from 1ns up to 2^MAX_EXP ns (18 minutes).
+// Recording is an index computation and one atomic increment, nothing is locked or allocated.
+public class Histogram {
+    final private static int SUB_BITS = 3;
+    final private static int SUB = 1 << SUB_BITS;
+    final private static int MAX_EXP = 40;
+    final private static int BUCKETS = (MAX_EXP - SUB_BITS + 1) * SUB;
+
+    final private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    final private LongAdder sum = new LongAdder();
+    final private AtomicLong max = new AtomicLong();
+
+    Histogram() {}
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        sum.add(nanos);
+        if (nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    // Counts of every bucket, read once so quantiles and the total agree with each other
+    long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) copy[i] = counts.get(i);
+        return copy;
+    }
+
+    // The highest value the bucket holding the q-th quantile can hold, never above the largest recorded
+    long quantile(long[] snapshot, long total, double q) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(lowest(i + 1) - 1, max.get());
+        }
+        return max.get();
+    }
+
+    private static int index(long value) {
+        if (value < SUB) return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        if (exp >= MAX_EXP) return BUCKETS - 1;
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // Smallest value in bucket i
+    private static long lowest(int i) {
+        if (i < SUB) return i;
+        int exp = i / SUB + SUB_BITS - 1;
+        return (long) (SUB + i % SUB) << (exp - SUB_BITS);
+    }
+}
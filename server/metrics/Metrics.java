@@ -0,0 +1,112 @@
+package server.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+// Every counter, gauge and histogram the server keeps, rendered in the Prometheus text format for /metrics.
+// Counters and histograms are made once, usually as static fields where they are updated, and updating them
+// never touches the registry. Gauges, and totals kept elsewhere, are read when scraped; registering one
+// again with the same labels replaces it. Labels are written as in the format: server="http"
+public final class Metrics {
+    final private static double NANOS_PER_SECOND = 1e9;
+    final private static double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999, 1 };
+
+    private static class Family {
+        final private String help;
+        final private String type;
+        final private Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    final private static Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private Metrics() {}
+
+    public static Counter counter(String name, String help) {
+        return counter(name, "", help);
+    }
+
+    public static synchronized Counter counter(String name, String labels, String help) {
+        Family family = family(name, help, "counter");
+        return (Counter) family.series.computeIfAbsent(labels, key -> new Counter());
+    }
+
+    // A total kept elsewhere, read when scraped
+    public static synchronized void counter(String name, String labels, String help, LongSupplier total) {
+        family(name, help, "counter").series.put(labels, total);
+    }
+
+    // Latencies in nanoseconds, exported in seconds as a summary
+    public static synchronized Histogram histogram(String name, String help) {
+        Family family = family(name, help, "summary");
+        return (Histogram) family.series.computeIfAbsent("", key -> new Histogram());
+    }
+
+    public static void gauge(String name, String help, LongSupplier value) {
+        gauge(name, "", help, value);
+    }
+
+    public static synchronized void gauge(String name, String labels, String help, LongSupplier value) {
+        family(name, help, "gauge").series.put(labels, value);
+    }
+
+    public static void render(StringBuilder out) {
+        ArrayList<Map.Entry<String, Family>> families;
+        synchronized (Metrics.class) {
+            families = new ArrayList<>(FAMILIES.entrySet());
+        }
+
+        for (Map.Entry<String, Family> entry : families) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+
+            ArrayList<Map.Entry<String, Object>> series;
+            synchronized (Metrics.class) {
+                series = new ArrayList<>(family.series.entrySet());
+            }
+            for (Map.Entry<String, Object> s : series) {
+                Object metric = s.getValue();
+                if (metric instanceof Counter counter) {
+                    sample(out, name, s.getKey()).append(counter.sum()).append('\n');
+                } else if (metric instanceof LongSupplier gauge) {
+                    sample(out, name, s.getKey()).append(gauge.getAsLong()).append('\n');
+                } else if (metric instanceof Histogram histogram) {
+                    summary(out, name, histogram);
+                }
+            }
+        }
+    }
+
+    private static void summary(StringBuilder out, String name, Histogram histogram) {
+        long[] counts = histogram.snapshot();
+        long total = 0;
+        for (long count : counts) total += count;
+
+        for (double q : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(q).append("\"} ");
+            out.append(histogram.quantile(counts, total, q) / NANOS_PER_SECOND).append('\n');
+        }
+        out.append(name).append("_sum ").append(histogram.sum() / NANOS_PER_SECOND).append('\n');
+        out.append(name).append("_count ").append(total).append('\n');
+    }
+
+    private static StringBuilder sample(StringBuilder out, String name, String labels) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        return out.append(' ');
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = FAMILIES.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) throw new IllegalArgumentException(name + " is already a " + family.type);
+        return family;
+    }
+}
@@ -0,0 +1,74 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+import server.log.Log;
+
+// Thread per connection mode: one task blocks in read and feeds the handler, another drains the
+// write queue. Blocking calls park the thread, which costs next to nothing on virtual threads.
+// onRead runs on the reader, onDrained on the writer.
+class BlockingConnection extends Connection {
+    final private Semaphore signal = new Semaphore(0);
+    final private Set<BlockingConnection> live;
+
+    BlockingConnection(SocketChannel channel, Handler handler, Set<BlockingConnection> live) {
+        super(channel, handler);
+        this.live = live;
+        live.add(this);
+    }
+
+    void readLoop() {
+        try {
+            while (!closed) {
+                read();
+            }
+        } catch (IOException e) {
+            // peer went away or the channel was closed under us
+        } finally {
+            close();
+            releaseInput();
+        }
+    }
+
+    void writeLoop() {
+        try {
+            while (!closed) {
+                if (writeQueued()) {
+                    drained();
+                    if (closed) break;
+                    signal.acquire();
+                    signal.drainPermits();
+                } else if (isWaiting()) {
+                    signal.acquire();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // peer went away or the channel was closed under us
+        } finally {
+            close();
+            // Here rather than in close, a write in progress may still be using its buffer
+            releaseQueued();
+        }
+    }
+
+    void scheduleFlush() {
+        signal.release();
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("Could not close connection");
+        }
+        signal.release();
+        live.remove(this);
+        handler.onClose(this);
+    }
+}
@@ -0,0 +1,97 @@
+package server.reactor;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Direct buffers for socket I/O, reused instead of allocated per connection or per message.
+// Sizes come in powers of two from MIN to MAX, each class keeps up to CLASS_BYTES of free buffers.
+// Requests above MAX get a plain heap buffer that release() ignores.
+// Run with -Djess.buffers.debug=true to record where every buffer was acquired: releasing one twice
+// or releasing a buffer the pool never handed out is reported, and what is still out is listed at exit.
+public final class BufferPool {
+    final private static int MIN_SHIFT = 9;
+    final private static int MAX_SHIFT = 16;
+    final public static int MAX = 1 << MAX_SHIFT;
+    final private static int CLASS_BYTES = 4 * 1024 * 1024;
+    final private static boolean DEBUG = Boolean.getBoolean("jess.buffers.debug");
+
+    private static class SizeClass {
+        final private ByteBuffer[] free;
+        private int count;
+
+        SizeClass(int size) {
+            free = new ByteBuffer[CLASS_BYTES / size];
+        }
+    }
+
+    final private static SizeClass[] CLASSES = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+    // Debug only, where each buffer in use was acquired
+    final private static Map<ByteBuffer, Throwable> OUT = new IdentityHashMap<>();
+
+    static {
+        for (int i = 0; i < CLASSES.length; i++) CLASSES[i] = new SizeClass(1 << (MIN_SHIFT + i));
+        if (DEBUG) Runtime.getRuntime().addShutdownHook(new Thread(BufferPool::reportLeaks));
+    }
+
+    private BufferPool() {}
+
+    // A cleared direct buffer with at least size bytes
+    public static ByteBuffer acquire(int size) {
+        if (size > MAX) return ByteBuffer.allocate(size);
+
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+        SizeClass sizeClass = CLASSES[shift - MIN_SHIFT];
+        ByteBuffer buf = null;
+        synchronized (sizeClass) {
+            if (sizeClass.count > 0) {
+                buf = sizeClass.free[--sizeClass.count];
+                sizeClass.free[sizeClass.count] = null;
+            }
+        }
+        if (buf == null) buf = ByteBuffer.allocateDirect(1 << shift);
+
+        if (DEBUG) {
+            synchronized (OUT) {
+                OUT.put(buf, new Throwable("Buffer of " + buf.capacity() + " acquired here"));
+            }
+        }
+        return buf.clear();
+    }
+
+    // Hands a buffer from acquire() back, nothing may use it afterwards
+    public static void release(ByteBuffer buf) {
+        if (!buf.isDirect()) return;
+
+        if (DEBUG) {
+            synchronized (OUT) {
+                if (OUT.remove(buf) == null) {
+                    new IllegalStateException("Buffer released twice or not from the pool").printStackTrace();
+                    return;
+                }
+            }
+        }
+
+        int shift = Integer.numberOfTrailingZeros(buf.capacity());
+        if (Integer.bitCount(buf.capacity()) != 1 || shift < MIN_SHIFT || shift > MAX_SHIFT) return;
+        SizeClass sizeClass = CLASSES[shift - MIN_SHIFT];
+        synchronized (sizeClass) {
+            if (sizeClass.count < sizeClass.free.length) sizeClass.free[sizeClass.count++] = buf;
+        }
+    }
+
+    // Buffers acquired and not yet released, only counted with debug on
+    public static int outstanding() {
+        synchronized (OUT) {
+            return OUT.size();
+        }
+    }
+
+    private static void reportLeaks() {
+        synchronized (OUT) {
+            if (OUT.isEmpty()) return;
+            System.out.println(OUT.size() + " pooled buffers were never released");
+            for (Throwable where : OUT.values()) where.printStackTrace(System.out);
+        }
+    }
+}
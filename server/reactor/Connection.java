@@ -0,0 +1,311 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import server.log.Log;
+import server.metrics.Counter;
+import server.metrics.Metrics;
+
+// Per-connection state shared by the event loop and thread-per-connection modes.
+// Any thread may queue writes, the connection's own writer drains them in order.
+public abstract class Connection {
+    final private static int INITIAL_BUFFER = 4096;
+    final private static int MAX_BUFFER = 64 * 1024;
+    final private static int MAX_GATHER = 64;
+    final private static Counter BYTES_READ = Metrics.counter("jess_bytes_received_total", "Bytes read from client sockets");
+    // Outbounds that write themselves add what they wrote
+    final public static Counter BYTES_WRITTEN = Metrics.counter("jess_bytes_sent_total", "Bytes written to client sockets");
+
+    final protected SocketChannel channel;
+    // Replaced once if the connection is upgraded to another protocol
+    protected volatile Handler handler;
+    // ByteBuffers or Outbounds that have not started going out
+    final private Queue<Object> out = new ConcurrentLinkedQueue<>();
+    final private AtomicInteger queued = new AtomicInteger();
+    private volatile int limit = Integer.MAX_VALUE;
+    private volatile int maxQueued = 0;
+    private volatile boolean notifyDrained = false;
+    // From the BufferPool, only touched by the reader and given back once the connection is closed
+    private ByteBuffer in = BufferPool.acquire(INITIAL_BUFFER);
+    private boolean reading = false;
+    // The write in progress, only touched by the writer: a run of buffers going out in one gathering
+    // write, with the Outbounds they came from, or an Outbound that writes itself
+    final private ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    final private Outbound[] gathered = new Outbound[MAX_GATHER];
+    private int gatherStart;
+    private int gatherEnd;
+    private Object current;
+    // The last writeQueued stopped at an Outbound that was not ready, not at a full socket
+    private boolean waiting;
+    private volatile long lastActive;
+    private volatile boolean keepIdle = false;
+    protected volatile boolean closing = false;
+    protected volatile boolean closed = false;
+
+    Connection(SocketChannel channel, Handler handler) {
+        this.channel = channel;
+        this.handler = handler;
+        lastActive = System.currentTimeMillis();
+    }
+
+    // Gets whatever drains the queue going: the owning loop or the writer thread
+    abstract void scheduleFlush();
+
+    public abstract void close();
+
+    boolean isIdle(long now, long timeout) {
+        return !keepIdle && now - lastActive > timeout;
+    }
+
+    // The reactor's idle timeout no longer closes this connection, for protocols that sit quiet for long
+    public void keepWhenIdle() {
+        keepIdle = true;
+    }
+
+    public Handler handler() {
+        return handler;
+    }
+
+    // Hands the connection to another protocol's handler, called from the current handler's onRead.
+    // Whatever that onRead leaves in the read buffer goes to the new handler straight away, the same buffer.
+    public void upgrade(Handler next) {
+        handler = next;
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    // Caps how many writes offer() lets wait on this connection
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int queued() {
+        return queued.get();
+    }
+
+    // Highest queue depth seen so far
+    public int maxQueued() {
+        return maxQueued;
+    }
+
+    // The handler's onDrained runs once, the next time the queue is empty
+    public void notifyWhenDrained() {
+        notifyDrained = true;
+        scheduleFlush();
+    }
+
+    void read() throws IOException {
+        if (in == null) return;
+        reading = true;
+        try {
+            readInput();
+        } finally {
+            reading = false;
+            if (closed) releaseInput();
+        }
+    }
+
+    private void readInput() throws IOException {
+        int n = channel.read(in);
+        if (n < 0) {
+            close();
+            return;
+        }
+        lastActive = System.currentTimeMillis();
+        BYTES_READ.add(n);
+
+        in.flip();
+        Handler current;
+        do {
+            current = handler;
+            current.onRead(this, in);
+        } while (handler != current && in.hasRemaining() && !closed);
+        in.compact();
+
+        if (!in.hasRemaining() && !closed) {
+            if (in.capacity() >= MAX_BUFFER) {
+                Log.warn("Input buffer limit reached, closing connection");
+                close();
+                return;
+            }
+            ByteBuffer bigger = BufferPool.acquire(in.capacity() * 2);
+            in.flip();
+            bigger.put(in);
+            BufferPool.release(in);
+            in = bigger;
+        }
+    }
+
+    // Gives the read buffer back to the pool, on the reader's thread and never in the middle of a read
+    void releaseInput() {
+        if (reading || in == null) return;
+        BufferPool.release(in);
+        in = null;
+    }
+
+    // Safe to call from any thread, the connection's writer does the actual write
+    public void send(ByteBuffer buf) {
+        enqueue(buf);
+    }
+
+    // Like send, but refuses the write when the queue is already at its limit
+    public boolean offer(ByteBuffer buf) {
+        if (queued.get() >= limit) return false;
+        enqueue(buf);
+        return true;
+    }
+
+    public void send(Outbound outbound) {
+        enqueue(outbound);
+    }
+
+    // Like offer for a buffer; a refused outbound stays the caller's to release
+    public boolean offer(Outbound outbound) {
+        if (queued.get() >= limit) return false;
+        enqueue(outbound);
+        return true;
+    }
+
+    private void enqueue(Object next) {
+        if (closed) {
+            if (next instanceof Outbound outbound) outbound.release();
+            return;
+        }
+        out.add(next);
+        int depth = queued.incrementAndGet();
+        if (depth > maxQueued) maxQueued = depth;
+
+        scheduleFlush();
+    }
+
+    // Gets the writer going again once an Outbound that was not ready() is
+    public void resume() {
+        scheduleFlush();
+    }
+
+    boolean isWaiting() {
+        return waiting;
+    }
+
+    // Writes until the queue is empty (true) or the channel takes no more for now (false).
+    // Consecutive buffers go out together in one writev, a response head and its body or a burst of frames.
+    boolean writeQueued() throws IOException {
+        waiting = false;
+        while (true) {
+            if (gatherStart < gatherEnd) {
+                BYTES_WRITTEN.add(channel.write(gather, gatherStart, gatherEnd - gatherStart));
+                while (gatherStart < gatherEnd && !gather[gatherStart].hasRemaining()) {
+                    if (gathered[gatherStart] != null) gathered[gatherStart].release();
+                    gather[gatherStart] = null;
+                    gathered[gatherStart] = null;
+                    gatherStart++;
+                    queued.decrementAndGet();
+                }
+                if (gatherStart < gatherEnd) return false;
+                gatherStart = gatherEnd = 0;
+            }
+
+            Object next = current;
+            if (next == null) {
+                next = out.poll();
+                if (next == null) return true;
+                if (gather(next)) {
+                    // abort() may take from the queue meanwhile, whatever comes next is checked again
+                    while (gatherEnd < MAX_GATHER && out.peek() != null) {
+                        Object more = out.poll();
+                        if (more == null || gather(more)) continue;
+                        current = more;
+                        break;
+                    }
+                    continue;
+                }
+                current = next;
+            }
+
+            Outbound outbound = (Outbound) next;
+            if (!outbound.ready()) {
+                waiting = true;
+                return false;
+            }
+            if (!outbound.writeTo(channel)) {
+                waiting = !outbound.ready();
+                return false;
+            }
+            outbound.release();
+            current = null;
+            queued.decrementAndGet();
+        }
+    }
+
+    // Adds next to the gathering write if it is plain bytes
+    private boolean gather(Object next) {
+        ByteBuffer buf;
+        Outbound owner = null;
+        if (next instanceof ByteBuffer plain) {
+            buf = plain;
+        } else {
+            owner = (Outbound) next;
+            buf = owner.buffer();
+            if (buf == null) return false;
+        }
+        gather[gatherEnd] = buf;
+        gathered[gatherEnd] = owner;
+        gatherEnd++;
+        return true;
+    }
+
+    // Called by the writer once the queue ran empty
+    void drained() {
+        if (closing) {
+            close();
+        } else if (notifyDrained) {
+            notifyDrained = false;
+            handler.onDrained(this);
+        }
+    }
+
+    void releaseQueued() {
+        if (current instanceof Outbound outbound) outbound.release();
+        current = null;
+        for (int i = gatherStart; i < gatherEnd; i++) {
+            if (gathered[i] != null) gathered[i].release();
+            gather[i] = null;
+            gathered[i] = null;
+        }
+        gatherStart = gatherEnd = 0;
+
+        Object next;
+        while ((next = out.poll()) != null) {
+            if (next instanceof Outbound outbound) outbound.release();
+        }
+        queued.set(0);
+    }
+
+    // Drops everything queued that has not started going out, then sends last and closes.
+    // Used to get rid of a client that cannot keep up without waiting for its backlog.
+    public void abort(ByteBuffer last) {
+        if (closed || closing) return;
+
+        Object next;
+        while ((next = out.poll()) != null) {
+            if (next instanceof Outbound outbound) outbound.release();
+            queued.decrementAndGet();
+        }
+
+        send(last);
+        closeAfterFlush();
+    }
+
+    // Closes once everything queued so far has been written
+    public void closeAfterFlush() {
+        closing = true;
+        scheduleFlush();
+    }
+}
@@ -0,0 +1,146 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import server.log.Log;
+
+public class EventLoop implements Runnable {
+    final private static long SWEEP_INTERVAL = 1000;
+
+    final private Selector selector;
+    final private Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    final private AtomicInteger connections = new AtomicInteger();
+    // Connections with writes queued during this iteration, flushed together at its end
+    final private ArrayList<LoopConnection> dirty = new ArrayList<>();
+    final private long idleTimeout;
+    private volatile Thread thread;
+    private volatile boolean running = true;
+    private long lastSweep;
+
+    // idleTimeout of 0 keeps idle connections open
+    public EventLoop(long idleTimeout) throws IOException {
+        selector = Selector.open();
+        this.idleTimeout = idleTimeout;
+    }
+
+    public void register(SocketChannel channel, Handler handler) {
+        connections.incrementAndGet();
+        execute(() -> {
+            LoopConnection conn = new LoopConnection(channel, this, handler);
+            try {
+                conn.attach(channel.register(selector, SelectionKey.OP_READ, conn));
+            } catch (IOException e) {
+                Log.warn("Could not register channel with EventLoop");
+                conn.close();
+            }
+        });
+    }
+
+    // Runs the task on the loop thread, on the next wakeup
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public int load() {
+        return connections.get();
+    }
+
+    void closed(LoopConnection conn) {
+        connections.decrementAndGet();
+    }
+
+    // Loop thread only, conn is flushed once the current iteration is done
+    void flushLater(LoopConnection conn) {
+        dirty.add(conn);
+    }
+
+    public void run() {
+        thread = Thread.currentThread();
+        lastSweep = System.currentTimeMillis();
+
+        while (running) {
+            try {
+                selector.select(this::process, SWEEP_INTERVAL);
+            } catch (IOException e) {
+                Log.error("Select failed in EventLoop");
+                break;
+            }
+
+            runTasks();
+            flushDirty();
+
+            long now = System.currentTimeMillis();
+            if (idleTimeout > 0 && now - lastSweep >= SWEEP_INTERVAL) {
+                sweepIdle(now);
+                lastSweep = now;
+            }
+        }
+
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            ((LoopConnection) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.warn("Could not close selector");
+        }
+    }
+
+    private void process(SelectionKey key) {
+        LoopConnection conn = (LoopConnection) key.attachment();
+
+        try {
+            if (key.isReadable()) {
+                conn.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                conn.flush();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            conn.close();
+        }
+    }
+
+    // Whatever the handlers queued this iteration goes out in as few writes as the socket allows
+    private void flushDirty() {
+        for (int i = 0; i < dirty.size(); i++) {
+            dirty.get(i).flushNow();
+        }
+        dirty.clear();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void sweepIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            LoopConnection conn = (LoopConnection) key.attachment();
+            if (conn.isIdle(now, idleTimeout)) {
+                conn.close();
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,14 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface Handler {
+    // Consumes what it can from in, anything left stays buffered until the next read
+    void onRead(Connection conn, ByteBuffer in) throws IOException;
+
+    default void onClose(Connection conn) {}
+
+    // Runs on the loop thread after Connection.notifyWhenDrained, once the write queue is empty
+    default void onDrained(Connection conn) {}
+}
@@ -0,0 +1,90 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import server.log.Log;
+
+// Connection owned by an EventLoop, reads, writes and handler calls all happen on the loop thread
+class LoopConnection extends Connection {
+    final private EventLoop loop;
+    final private AtomicBoolean flushScheduled = new AtomicBoolean();
+    // On the loop's dirty list, loop thread only
+    private boolean flushPending = false;
+    private SelectionKey key;
+
+    LoopConnection(SocketChannel channel, EventLoop loop, Handler handler) {
+        super(channel, handler);
+        this.loop = loop;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    // Writes wait for the end of the loop iteration, so everything queued in it goes out together
+    void scheduleFlush() {
+        if (loop.inLoop()) {
+            flushLater();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                flushLater();
+            });
+        }
+    }
+
+    private void flushLater() {
+        if (flushPending) return;
+        flushPending = true;
+        loop.flushLater(this);
+    }
+
+    void flushNow() {
+        flushPending = false;
+        flushQuietly();
+    }
+
+    void flush() throws IOException {
+        if (closed || key == null) return;
+
+        if (writeQueued()) {
+            key.interestOps(SelectionKey.OP_READ);
+            drained();
+        } else if (isWaiting()) {
+            key.interestOps(SelectionKey.OP_READ);
+        } else {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    public void close() {
+        if (!loop.inLoop()) {
+            loop.execute(this::close);
+            return;
+        }
+        if (closed) return;
+        closed = true;
+        releaseQueued();
+        releaseInput();
+
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("Could not close connection");
+        }
+        loop.closed(this);
+        handler.onClose(this);
+    }
+}
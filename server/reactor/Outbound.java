@@ -0,0 +1,26 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// Something queued on a Connection that is not a plain ByteBuffer, e.g. a file transfer
+public interface Outbound {
+    // Writes as much as the channel accepts, returns true once everything is written
+    boolean writeTo(SocketChannel channel) throws IOException;
+
+    // Bytes already in memory can go out in one gathering write with their neighbours in the queue,
+    // released once written like any other Outbound. Null when writeTo has to do the writing.
+    default ByteBuffer buffer() {
+        return null;
+    }
+
+    // False while the next bytes are still being made on another thread. The writer then waits without
+    // watching the socket, until the producer calls Connection.resume().
+    default boolean ready() {
+        return true;
+    }
+
+    // Called once, after the last write or when the connection closes first
+    default void release() {}
+}
@@ -0,0 +1,27 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// A flipped buffer from the BufferPool that goes back to the pool once written or dropped
+public class PooledBuffer implements Outbound {
+    final private ByteBuffer buf;
+
+    public PooledBuffer(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public boolean writeTo(SocketChannel channel) throws IOException {
+        channel.write(buf);
+        return !buf.hasRemaining();
+    }
+
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+    public void release() {
+        BufferPool.release(buf);
+    }
+}
@@ -0,0 +1,196 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import server.log.Log;
+import server.metrics.Counter;
+import server.metrics.Metrics;
+
+// One acceptor (the thread running run()) feeding either a fixed set of worker event loops,
+// or an executor that gives every connection a blocking reader and writer
+public class Reactor implements Runnable {
+    public static enum Balance {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    public static enum Mode {
+        EVENT_LOOP,
+        PLATFORM_THREADS,
+        VIRTUAL_THREADS
+    }
+
+    final private static long SWEEP_INTERVAL = 1000;
+
+    final private String name;
+    final private ServerSocketChannel server;
+    final private Balance balance;
+    // Called on the acceptor thread, returning null rejects the connection
+    final private Supplier<Handler> handlers;
+    final private int maxConnections;
+    final private long idleTimeout;
+    final private Counter accepted;
+    final private Counter rejected;
+    private EventLoop[] loops;
+    private ExecutorService executor;
+    final private Set<BlockingConnection> live = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+    private int next = 0;
+
+    // How connections are served: by default one event loop per core and no connection limit
+    public static class Options {
+        private Mode mode = Mode.EVENT_LOOP;
+        private int workers = Runtime.getRuntime().availableProcessors();
+        private Balance balance = Balance.ROUND_ROBIN;
+        private int maxConnections = Integer.MAX_VALUE;
+
+        public Options mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        // Event loops, only used in EVENT_LOOP mode
+        public Options workers(int workers, Balance balance) {
+            this.workers = workers;
+            this.balance = balance;
+            return this;
+        }
+
+        // Live connections allowed, more are closed as they are accepted
+        public Options maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+    }
+
+    public Reactor(String name, int port, long idleTimeout, Options options, Supplier<Handler> handlers) throws IOException {
+        this.name = name;
+        this.balance = options.balance;
+        this.handlers = handlers;
+        this.maxConnections = options.maxConnections;
+        this.idleTimeout = idleTimeout;
+        String label = "server=\"" + name + "\"";
+        accepted = Metrics.counter("jess_connections_accepted_total", label, "Connections handed to a handler");
+        rejected = Metrics.counter("jess_connections_rejected_total", label, "Connections closed over the connection limit");
+
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+
+        if (options.mode == Mode.EVENT_LOOP) {
+            loops = new EventLoop[Math.max(1, options.workers)];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(idleTimeout);
+                Thread loop = new Thread(loops[i]);
+                loop.setName(name + "-loop-" + i);
+                loop.start();
+            }
+            return;
+        }
+
+        Thread.Builder threads = options.mode == Mode.VIRTUAL_THREADS ? Thread.ofVirtual() : Thread.ofPlatform();
+        executor = Executors.newThreadPerTaskExecutor(threads.name(name + "-", 0).factory());
+
+        if (idleTimeout > 0) {
+            Thread sweeper = new Thread(this::sweepIdle);
+            sweeper.setName(name + "-idle-sweeper");
+            sweeper.setDaemon(true);
+            sweeper.start();
+        }
+    }
+
+    public void run() {
+        // Not in the constructor, a scrape must never see a reactor still being built
+        Metrics.gauge("jess_connections", "server=\"" + name + "\"", "Connections open right now", this::liveConnections);
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+
+                try {
+                    if (liveConnections() >= maxConnections) {
+                        Log.warn("Too many {} connections, rejecting client", name);
+                        rejected.inc();
+                        client.close();
+                        continue;
+                    }
+                    Handler handler = handlers.get();
+                    if (handler == null) {
+                        client.close();
+                        continue;
+                    }
+
+                    if (loops != null) {
+                        client.configureBlocking(false);
+                        nextLoop().register(client, handler);
+                    } else {
+                        BlockingConnection conn = new BlockingConnection(client, handler, live);
+                        executor.execute(conn::readLoop);
+                        executor.execute(conn::writeLoop);
+                    }
+                    accepted.inc();
+                } catch (IOException e) {
+                    Log.warn("Could not hand {} client to a worker", name);
+                    client.close();
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Could not accept a {} client", name);
+        }
+    }
+
+    public int liveConnections() {
+        if (loops == null) return live.size();
+
+        int total = 0;
+        for (EventLoop loop : loops) total += loop.load();
+        return total;
+    }
+
+    private EventLoop nextLoop() {
+        if (balance == Balance.LEAST_LOADED) {
+            EventLoop least = loops[0];
+            for (EventLoop loop : loops) {
+                if (loop.load() < least.load()) least = loop;
+            }
+            return least;
+        }
+
+        EventLoop loop = loops[next];
+        next = (next + 1) % loops.length;
+        return loop;
+    }
+
+    private void sweepIdle() {
+        while (running) {
+            try {
+                Thread.sleep(SWEEP_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            for (BlockingConnection conn : live) {
+                if (conn.isIdle(now, idleTimeout)) conn.close();
+            }
+        }
+    }
+
+    public void stop() throws IOException {
+        running = false;
+        server.close();
+        if (loops != null) {
+            for (EventLoop loop : loops) loop.stop();
+        } else {
+            for (BlockingConnection conn : live) conn.close();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package server.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A flipped buffer from the BufferPool queued on many connections at once, each through its own view.
+// It goes back to the pool once the creator and every view have released it.
+public class SharedBuffer {
+    final private ByteBuffer buf;
+    // The creator's reference plus one per view not yet released
+    final private AtomicInteger refs = new AtomicInteger(1);
+
+    public SharedBuffer(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    // An Outbound with its own position over the same bytes, for one connection
+    public Outbound view() {
+        refs.incrementAndGet();
+        return new View(buf.duplicate());
+    }
+
+    // The creator is done handing out views
+    public void release() {
+        if (refs.decrementAndGet() == 0) BufferPool.release(buf);
+    }
+
+    private class View implements Outbound {
+        final private ByteBuffer view;
+
+        View(ByteBuffer view) {
+            this.view = view;
+        }
+
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(view);
+            return !view.hasRemaining();
+        }
+
+        public ByteBuffer buffer() {
+            return view;
+        }
+
+        public void release() {
+            SharedBuffer.this.release();
+        }
+    }
+}
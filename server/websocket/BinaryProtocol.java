@@ -0,0 +1,86 @@
+package server.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import server.chess.Board.Status;
+import server.reactor.BufferPool;
+import server.reactor.SharedBuffer;
+import server.websocket.Enums.FrameType;
+import server.websocket.Enums.Role;
+
+// Binary subprotocol, picked by offering NAME in Sec-WebSocket-Protocol. One message per frame,
+// big endian, the first byte says what follows:
+//   MOVE   ply:u16 move:u16           both ways, ply is the move's index in the game (0 for white's first)
+//   ROLE   role:u8                    0 white, 1 black, 2 spectator
+//   ERROR  code:u8
+//   END    status:u8 winner:u8        status as in Board.Status, winner 0 white, 1 black, 2 none
+//   SYNC   count:u16 move:u16 * count fen:ascii
+//          every move so far and the position they lead to (FEN, to the end of the message),
+//          sent to late joiners and in place of the moves a slow client missed
+// Moves are the 16 bit words from server.chess.Move. A client sending a ply other than the next one gets
+// ERROR_SEQUENCE, so a move made on a stale board is refused rather than applied to the wrong position.
+final class BinaryProtocol {
+    final static String NAME = "jess-binary-v1";
+
+    final static int MOVE_LENGTH = 5;
+
+    final static byte MOVE = 1;
+    final static byte ROLE = 2;
+    final static byte ERROR = 3;
+    final static byte END = 4;
+    final static byte SYNC = 5;
+
+    final static byte ERROR_UNKNOWN = 1;
+    final static byte ERROR_OVER = 2;
+    final static byte ERROR_TURN = 3;
+    final static byte ERROR_ILLEGAL = 4;
+    final static byte ERROR_SEQUENCE = 5;
+
+    private BinaryProtocol() {}
+
+    static boolean isMove(ByteBuffer payload) {
+        return payload.remaining() == MOVE_LENGTH && payload.get(payload.position()) == MOVE;
+    }
+
+    static int ply(ByteBuffer payload) {
+        return Short.toUnsignedInt(payload.getShort(payload.position() + 1));
+    }
+
+    static int move(ByteBuffer payload) {
+        return Short.toUnsignedInt(payload.getShort(payload.position() + 3));
+    }
+
+    static byte[] move(int ply, int move) {
+        return new byte[] {MOVE, (byte) (ply >>> 8), (byte) ply, (byte) (move >>> 8), (byte) move};
+    }
+
+    // The whole unmasked BINARY frame of a move, header and all, written into a pooled buffer
+    static SharedBuffer moveFrame(int ply, int move) {
+        ByteBuffer frame = BufferPool.acquire(MOVE_LENGTH + 2);
+        frame.put((byte) (0x80 | FrameType.BINARY.getCode())).put((byte) MOVE_LENGTH);
+        frame.put(MOVE).putShort((short) ply).putShort((short) move);
+        return new SharedBuffer(frame.flip());
+    }
+
+    static byte[] role(Role role) {
+        return new byte[] {ROLE, (byte) role.ordinal()};
+    }
+
+    static byte[] error(byte code) {
+        return new byte[] {ERROR, code};
+    }
+
+    static byte[] end(Status status, Role winner) {
+        return new byte[] {END, (byte) status.ordinal(), (byte) (winner == null ? 2 : winner.ordinal())};
+    }
+
+    static byte[] sync(short[] moves, int count, String fen) {
+        ByteBuffer out = ByteBuffer.allocate(3 + count * 2 + fen.length());
+        out.put(SYNC).putShort((short) count);
+        out.asShortBuffer().put(moves, 0, count);
+        out.position(3 + count * 2);
+        out.put(fen.getBytes(StandardCharsets.US_ASCII));
+        return out.array();
+    }
+}
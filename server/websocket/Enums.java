@@ -51,4 +51,21 @@ public class Enums {
             return value;
         }
     }
+
+    // What to do with a client whose outbound queue is full
+    public static enum SlowConsumerPolicy {
+        RESYNC(0),              // drop updates, send a snapshot once the queue drains
+        CLOSE_POLICY(1008),     // close with 1008 Policy Violation
+        CLOSE_TRY_AGAIN(1013);  // close with 1013 Try Again Later
+
+        final private int closeCode;
+
+        SlowConsumerPolicy(int closeCode) {
+            this.closeCode = closeCode;
+        }
+
+        int getCloseCode() {
+            return closeCode;
+        }
+    }
 }
@@ -0,0 +1,202 @@
+package server.websocket;
+
+import java.nio.ByteBuffer;
+
+import server.metrics.Counter;
+import server.metrics.Metrics;
+import server.websocket.Enums.FrameType;
+
+// Incremental decoder for client frames. It takes whatever bytes are buffered, decodes as many frames
+// as they hold, keeps partial frames across calls and joins CONTINUATION fragments into one message.
+// A frame that is a whole message and arrived in one read, the usual case, is unmasked in place in the
+// read buffer and handed over from there. Only fragments and frames split across reads are copied out.
+public class FrameDecoder {
+    final private static Counter FRAMES_RECEIVED = Metrics.counter("jess_websocket_frames_received_total",
+        "Websocket frames decoded from clients, each fragment counted");
+
+    public interface Listener {
+        // A complete TEXT or BINARY message, payload is only valid during the call.
+        // compressed is set when the first frame had RSV1, which only happens once compression is allowed.
+        void onMessage(FrameType type, ByteBuffer payload, boolean compressed);
+
+        // CLOSE, PING or PONG, payload is only valid during the call
+        void onControl(FrameType type, ByteBuffer payload);
+
+        // The stream broke the protocol, the connection should be closed with code
+        void onError(int code, String reason);
+    }
+
+    final private static int MAX_CONTROL = 125;
+
+    final private int maxMessage;
+    final private ByteBuffer control = ByteBuffer.allocate(MAX_CONTROL);
+    private ByteBuffer message = ByteBuffer.allocate(1024);
+    private FrameType messageType;
+    private boolean messageCompressed;
+    // RSV1 marks a compressed message once permessage-deflate is negotiated
+    private boolean allowCompressed = false;
+
+    private boolean inPayload = false;
+    private boolean failed = false;
+    private boolean fin;
+    private FrameType type;
+    private int mask;
+    // Payload bytes of the current frame unmasked so far
+    private long maskIndex;
+    private long remaining;
+
+    public FrameDecoder(int maxMessage) {
+        this.maxMessage = maxMessage;
+    }
+
+    public void allowCompressed(boolean allow) {
+        allowCompressed = allow;
+    }
+
+    public void decode(ByteBuffer in, Listener listener) {
+        while (!failed) {
+            if (!inPayload) {
+                if (!readHeader(in, listener)) return;
+                inPayload = true;
+            }
+
+            int n = (int) Math.min(in.remaining(), remaining);
+            int pos = in.position();
+            if (maskIndex == 0 && n == remaining && isWhole()) {
+                Masking.unmask(in, pos, in, n, mask, 0);
+                remaining = 0;
+                inPayload = false;
+                frameInPlace(in, pos, n, listener);
+                continue;
+            }
+
+            if (!isControl()) ensureCapacity(n);
+            ByteBuffer target = isControl() ? control : message;
+            Masking.unmask(in, pos, target, n, mask, maskIndex);
+            maskIndex += n;
+            in.position(pos + n);
+            remaining -= n;
+
+            if (remaining > 0) return;
+            inPayload = false;
+            frameDone(listener);
+        }
+    }
+
+    private boolean isControl() {
+        return type.getCode() >= FrameType.CLOSE.getCode();
+    }
+
+    // The current frame is a message or a control frame on its own, not part of a fragmented message
+    private boolean isWhole() {
+        return isControl() || (fin && type != FrameType.CONTINUATION);
+    }
+
+    private boolean readHeader(ByteBuffer in, Listener listener) {
+        int start = in.position();
+        if (in.remaining() < 2) return false;
+
+        int first = in.get(start);
+        int second = in.get(start + 1);
+        int lenFlag = second & 0b01111111;
+        boolean masked = (second & 0b10000000) != 0;
+
+        int headerLen = 2 + (masked ? 4 : 0) + (lenFlag == 126 ? 2 : lenFlag == 127 ? 8 : 0);
+        if (in.remaining() < headerLen) return false;
+
+        fin = (first & 0b10000000) != 0;
+        type = FrameType.parseFrameType(first & 0b00001111);
+
+        long length = lenFlag;
+        int maskStart = start + 2;
+        if (lenFlag == 126) {
+            length = Short.toUnsignedInt(in.getShort(start + 2));
+            maskStart += 2;
+        } else if (lenFlag == 127) {
+            length = in.getLong(start + 2);
+            maskStart += 8;
+        }
+
+        boolean rsv1 = (first & 0b01000000) != 0;
+        if ((first & 0b00110000) != 0 || rsv1 && !allowCompressed) return fail(listener, 1002, "Reserved bits set");
+        if (type == null) return fail(listener, 1002, "Unknown opcode");
+        // Only the first frame of a data message says whether it is compressed
+        if (rsv1 && (type == FrameType.CONTINUATION || type.getCode() >= FrameType.CLOSE.getCode())) {
+            return fail(listener, 1002, "Unexpected RSV1");
+        }
+        if (!masked) return fail(listener, 1002, "Client frames must be masked");
+        if (length < 0) return fail(listener, 1002, "Invalid length");
+
+        if (type.getCode() >= FrameType.CLOSE.getCode()) {
+            if (!fin || length > MAX_CONTROL) return fail(listener, 1002, "Invalid control frame");
+            control.clear();
+        } else if (type == FrameType.CONTINUATION) {
+            if (messageType == null) return fail(listener, 1002, "Unexpected continuation");
+        } else {
+            if (messageType != null) return fail(listener, 1002, "Expected continuation");
+            messageType = type;
+            messageCompressed = rsv1;
+            message.clear();
+        }
+
+        if (type.getCode() < FrameType.CLOSE.getCode() && length > maxMessage - message.position()) {
+            return fail(listener, 1009, "Message too big");
+        }
+
+        mask = in.getInt(maskStart);
+        maskIndex = 0;
+        remaining = length;
+        in.position(start + headerLen);
+        return true;
+    }
+
+    private void frameDone(Listener listener) {
+        FRAMES_RECEIVED.inc();
+        if (type.getCode() >= FrameType.CLOSE.getCode()) {
+            control.flip();
+            listener.onControl(type, control);
+            return;
+        }
+        if (!fin) return;
+
+        FrameType done = messageType;
+        messageType = null;
+        message.flip();
+        listener.onMessage(done, message, messageCompressed);
+        message.clear();
+    }
+
+    // Hands over n unmasked bytes at pos in in, which is left just past them whatever the listener does
+    private void frameInPlace(ByteBuffer in, int pos, int n, Listener listener) {
+        FRAMES_RECEIVED.inc();
+        int limit = in.limit();
+        in.limit(pos + n).position(pos);
+        try {
+            if (isControl()) {
+                listener.onControl(type, in);
+            } else {
+                messageType = null;
+                listener.onMessage(type, in, messageCompressed);
+            }
+        } finally {
+            in.limit(limit).position(pos + n);
+        }
+    }
+
+    private void ensureCapacity(int more) {
+        if (message.remaining() >= more) return;
+
+        long size = message.capacity();
+        while (size - message.position() < more) size *= 2;
+        ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(size, maxMessage));
+        message.flip();
+        bigger.put(message);
+        message = bigger;
+    }
+
+    private boolean fail(Listener listener, int code, String reason) {
+        failed = true;
+        listener.onError(code, reason);
+        return false;
+    }
+}
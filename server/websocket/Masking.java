@@ -0,0 +1,27 @@
+package server.websocket;
+
+import java.nio.ByteBuffer;
+
+// Client payloads are XORed with a 4 byte key (RFC 6455 5.3). Done 8 bytes at a time through long
+// reads and writes, the key repeated twice in a long, and byte by byte only for the last few.
+final class Masking {
+    private Masking() {}
+
+    // XORs len bytes of in from pos and puts them at out's position, which moves past them.
+    // key is the masking key read big endian, offset the number of payload bytes before these,
+    // so a frame split over several reads carries on where the key left off.
+    static void unmask(ByteBuffer in, int pos, ByteBuffer out, int len, int key, long offset) {
+        int rotated = Integer.rotateLeft(key, (int) (offset & 3) * 8);
+        long wide = ((long) rotated << 32) | (rotated & 0xFFFFFFFFL);
+        int start = out.position();
+
+        int i = 0;
+        for (; i <= len - 8; i += 8) {
+            out.putLong(start + i, in.getLong(pos + i) ^ wide);
+        }
+        for (; i < len; i++) {
+            out.put(start + i, (byte) (in.get(pos + i) ^ (rotated >>> (24 - ((i & 3) << 3)))));
+        }
+        out.position(start + len);
+    }
+}
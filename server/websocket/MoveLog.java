@@ -0,0 +1,115 @@
+package server.websocket;
+
+import java.util.Arrays;
+
+import server.chess.Board;
+import server.chess.Board.Status;
+import server.chess.Game;
+import server.chess.Move;
+import server.chess.Pgn;
+import server.chess.PositionCache;
+import server.journal.Journal;
+import server.journal.Entry;
+import server.websocket.Enums.Role;
+
+// The game's position and the moves accepted so far, used to bring a client that fell behind back in sync.
+// Broadcasts happen while holding the log's lock so a snapshot never overlaps a move in flight.
+class MoveLog {
+    final private String id;
+    final private Game game;
+    final private PositionCache positions;
+    // Null when games are not journaled
+    final private Journal journal;
+    // The journal's number for this game, -1 until its first move is written
+    private long gameKey = -1;
+    // Epoch seconds of the first move, 0 before it
+    private long started;
+    private short[] moves = new short[64];
+    private int size;
+
+    MoveLog(String id, PositionCache positions, Journal journal) {
+        this.id = id;
+        this.positions = positions;
+        this.journal = journal;
+        game = new Game();
+    }
+
+    // False when the move is not legal in the current position
+    synchronized boolean play(int move) {
+        if (!game.play(move)) return false;
+
+        add(move);
+        if (size == 1) started = System.currentTimeMillis() / 1000;
+        if (journal != null) {
+            long seq = journal.append(Entry.MOVE, id, gameKey, size - 1, move);
+            if (gameKey < 0) gameKey = seq;
+            if (game.status() != Status.ONGOING) journal.append(Entry.END, id, gameKey, size, game.status().ordinal());
+        }
+        return true;
+    }
+
+    // Rebuilds the game from journal records. A record already applied (a compaction cut short leaves
+    // some twice) or from another game played under the same id is skipped.
+    synchronized void replay(long key, int ply, int move, long time) {
+        if (size == 0 && gameKey < 0) gameKey = key;
+        if (key != gameKey || ply != size) return;
+        if (!game.play(move)) return;
+        if (size == 0) started = time;
+        add(move);
+    }
+
+    private void add(int move) {
+        if (size == moves.length) moves = Arrays.copyOf(moves, size * 2);
+        moves[size++] = (short) move;
+    }
+
+    // Number of moves played, also the ply of the next one
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized Role turn() {
+        return game.board().sideToMove() == Board.WHITE ? Role.WHITE : Role.BLACK;
+    }
+
+    synchronized String next() {
+        return turn().getValue();
+    }
+
+    synchronized Status status() {
+        return game.status();
+    }
+
+    // The side that delivered mate, null for any other result
+    synchronized Role winner() {
+        if (game.status() != Status.CHECKMATE) return null;
+        return turn() == Role.WHITE ? Role.BLACK : Role.WHITE;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized long gameKey() {
+        return gameKey;
+    }
+
+    synchronized void writePgn(StringBuilder out) {
+        Pgn.write(out, positions, id, started, moves, size, game.status());
+    }
+
+    // sync:<fen>:<move>,<move>,...:<side to move>
+    synchronized String snapshot() {
+        StringBuilder sb = new StringBuilder(size * 5 + 100).append("sync:");
+        sb.append(game.board().toFen()).append(':');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(Move.toUci(moves[i]));
+        }
+        return sb.append(':').append(next()).toString();
+    }
+
+    synchronized byte[] binarySnapshot() {
+        return BinaryProtocol.sync(moves, size, game.board().toFen());
+    }
+}
@@ -0,0 +1,126 @@
+package server.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// permessage-deflate (RFC 7692) for one connection, with its own Deflater and Inflater kept for its lifetime.
+// We always answer with server_no_context_takeover: every message we send is compressed on its own,
+// so a broadcast is compressed once and the same bytes go to every client that negotiated the extension.
+// Client messages may use context takeover, the Inflater keeps its window between messages.
+// Deflater always uses a 32K window, so offers that cap server_max_window_bits below 15 are declined.
+class PerMessageDeflate {
+    final static String NAME = "permessage-deflate";
+    final private static byte[] TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+
+    final private int threshold;
+    final private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    final private Inflater inflater = new Inflater(true);
+    final private ByteBuffer tail = ByteBuffer.wrap(TAIL);
+    private byte[] compressed = new byte[4096];
+    private ByteBuffer inflated = ByteBuffer.allocate(4096);
+    private boolean ended = false;
+
+    private PerMessageDeflate(int threshold) {
+        this.threshold = threshold;
+    }
+
+    // Takes the first permessage-deflate offer we can honour from a Sec-WebSocket-Extensions value,
+    // returns null when there is none. Messages shorter than threshold are sent uncompressed.
+    static PerMessageDeflate negotiate(String extensions, int threshold) {
+        for (String offer : extensions.split(",")) {
+            String[] params = offer.split(";");
+            if (!params[0].trim().equalsIgnoreCase(NAME)) continue;
+
+            boolean acceptable = true;
+            for (int i = 1; i < params.length && acceptable; i++) {
+                String[] param = params[i].trim().split("=", 2);
+                String value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+                switch (param[0].trim().toLowerCase()) {
+                    case "server_no_context_takeover":
+                    case "client_no_context_takeover":
+                        break;
+                    case "server_max_window_bits":
+                        acceptable = "15".equals(value);
+                        break;
+                    case "client_max_window_bits":
+                        // Our Inflater reads any window size the client picks
+                        break;
+                    default:
+                        acceptable = false;
+                        break;
+                }
+            }
+            if (acceptable) return new PerMessageDeflate(threshold);
+        }
+        return null;
+    }
+
+    String response() {
+        return NAME + "; server_no_context_takeover";
+    }
+
+    boolean shouldCompress(int length) {
+        return length >= threshold;
+    }
+
+    // The compressed payload without the trailing 00 00 ff ff, or null if compressing did not make it smaller
+    synchronized byte[] compress(byte[] payload) {
+        if (ended) return null;
+
+        deflater.reset();
+        deflater.setInput(payload);
+        int length = 0;
+        while (true) {
+            length += deflater.deflate(compressed, length, compressed.length - length, Deflater.SYNC_FLUSH);
+            if (length < compressed.length) break;
+            compressed = Arrays.copyOf(compressed, compressed.length * 2);
+        }
+
+        length -= TAIL.length;
+        if (length >= payload.length) return null;
+        return Arrays.copyOf(compressed, length);
+    }
+
+    // The inflated message, valid until the next call, or null if it would be bigger than max
+    synchronized ByteBuffer decompress(ByteBuffer payload, int max) throws DataFormatException {
+        if (ended) throw new DataFormatException("Connection closed");
+
+        inflated.clear();
+        tail.rewind();
+        if (!inflate(payload, max)) return null;
+        if (inflater.finished()) {
+            // The client ended the deflate stream, the next message starts a new one
+            inflater.reset();
+        } else if (!inflate(tail, max)) {
+            return null;
+        }
+        inflated.flip();
+        return inflated;
+    }
+
+    private boolean inflate(ByteBuffer input, int max) throws DataFormatException {
+        inflater.setInput(input);
+        while (true) {
+            if (inflater.finished()) return true;
+            if (!inflated.hasRemaining()) {
+                if (inflated.capacity() >= max) return false;
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(inflated.capacity() * 2, max));
+                inflated.flip();
+                bigger.put(inflated);
+                inflated = bigger;
+            }
+            // Nothing written with all input used means it is all out, a full buffer goes round again
+            if (inflater.inflate(inflated) == 0 && inflater.needsInput()) return true;
+        }
+    }
+
+    // Frees the native zlib state, called once the connection is closed
+    synchronized void end() {
+        ended = true;
+        deflater.end();
+        inflater.end();
+    }
+}
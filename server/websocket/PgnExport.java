@@ -0,0 +1,153 @@
+package server.websocket;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import server.chess.Board.Status;
+import server.chess.Pgn;
+import server.http.ChunkSource;
+import server.http.GameExport;
+import server.journal.Entry;
+import server.journal.EntryReader;
+import server.journal.Journal;
+import server.log.Log;
+
+// Games as PGN for the HTTP server, one game per call to next() so only the game being written is held.
+// The archive is the finished games still in rooms, then those only the journal has left.
+class PgnExport implements GameExport {
+    final private static Status[] STATUSES = Status.values();
+
+    final private RoomRegistry rooms;
+    // Null when games are not journaled
+    final private Journal journal;
+
+    PgnExport(RoomRegistry rooms, Journal journal) {
+        this.rooms = rooms;
+        this.journal = journal;
+    }
+
+    public ChunkSource game(String id) throws IOException {
+        Room room = rooms.get(id);
+        if (room != null && !room.getLog().isEmpty()) {
+            MoveLog log = room.getLog();
+            return single(log::writePgn);
+        }
+        if (journal == null) return null;
+
+        // Rooms of finished games are gone once empty, the last game finished under id is in the journal
+        Moves last = null;
+        Status status = null;
+        HashMap<Long, Moves> open = new HashMap<>();
+        Entry entry = new Entry();
+        try (EntryReader entries = journal.openAll()) {
+            while (entries.next(entry)) {
+                if (!entry.id().equals(id)) continue;
+                if (entry.type() == Entry.MOVE) {
+                    add(open, entry);
+                } else if (entry.type() == Entry.END) {
+                    Moves moves = open.remove(entry.game());
+                    if (moves == null) continue;
+                    last = moves;
+                    status = STATUSES[entry.value()];
+                }
+            }
+        }
+        if (last == null) return null;
+
+        Moves game = last;
+        Status result = status;
+        return single(out -> Pgn.write(out, rooms.positions(), game.id, game.time, game.moves, game.count, result));
+    }
+
+    public ChunkSource archive() throws IOException {
+        Iterator<Room> live = rooms.all().iterator();
+        EntryReader archived = journal == null ? null : journal.openAll();
+        return new ChunkSource() {
+            final private Entry entry = new Entry();
+            // Archived games whose END has not been read yet, by game key
+            final private HashMap<Long, Moves> open = new HashMap<>();
+            // END sequences only increase, one at or below this is a copy left by a compaction cut short
+            private long lastEnd = -1;
+
+            public boolean next(StringBuilder out) throws IOException {
+                while (live.hasNext()) {
+                    MoveLog log = live.next().getLog();
+                    if (log.isEmpty() || log.status() == Status.ONGOING) continue;
+                    log.writePgn(out);
+                    return true;
+                }
+
+                if (archived == null) return false;
+                while (archived.next(entry)) {
+                    // Written from its room above. A game that finishes or leaves its room while the export
+                    // runs may be missed or written twice.
+                    if (inRoom(entry)) continue;
+                    if (entry.type() == Entry.MOVE) {
+                        add(open, entry);
+                    } else if (entry.type() == Entry.END) {
+                        Moves moves = open.remove(entry.game());
+                        if (moves == null || entry.sequence() <= lastEnd) continue;
+                        lastEnd = entry.sequence();
+                        Pgn.write(out, rooms.positions(), moves.id, moves.time, moves.moves, moves.count,
+                            STATUSES[entry.value()]);
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            public void close() {
+                if (archived == null) return;
+                try {
+                    archived.close();
+                } catch (IOException e) {
+                    Log.warn("Could not close journal archive after export");
+                }
+            }
+        };
+    }
+
+    private boolean inRoom(Entry entry) {
+        Room room = rooms.get(entry.id());
+        return room != null && room.getLog().gameKey() == entry.game();
+    }
+
+    // A compaction cut short can leave the same entries twice
+    private static void add(HashMap<Long, Moves> open, Entry entry) {
+        Moves moves = open.computeIfAbsent(entry.game(), key -> new Moves(entry.id(), entry.time()));
+        if (entry.ply() == moves.count) moves.add(entry.value());
+    }
+
+    private static ChunkSource single(Consumer<StringBuilder> writer) {
+        return new ChunkSource() {
+            private boolean written = false;
+
+            public boolean next(StringBuilder out) {
+                if (written) return false;
+                writer.accept(out);
+                written = true;
+                return true;
+            }
+        };
+    }
+
+    private static class Moves {
+        final private String id;
+        final private long time;
+        private short[] moves = new short[64];
+        private int count;
+
+        Moves(String id, long time) {
+            this.id = id;
+            this.time = time;
+        }
+
+        void add(int move) {
+            if (count == moves.length) moves = Arrays.copyOf(moves, count * 2);
+            moves[count++] = (short) move;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package server.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import server.chess.Board.Status;
+import server.chess.PositionCache;
+import server.chess.Move;
+import server.journal.Journal;
+import server.reactor.SharedBuffer;
+import server.websocket.Enums.FrameType;
+import server.websocket.Enums.Role;
+
+// One game: its players, spectators and moves
+class Room {
+    final private String id;
+    final private MoveLog log;
+    final private Set<WebSocketHandler> members = ConcurrentHashMap.newKeySet();
+    private WebSocketHandler white;
+    private WebSocketHandler black;
+    // Encoded snapshot frames by client variant, valid while the game is at snapshotPly moves.
+    // Only touched with the log lock held.
+    final private ByteBuffer[] snapshots = new ByteBuffer[4];
+    private int snapshotPly = -1;
+
+    Room(String id, PositionCache positions, Journal journal) {
+        this.id = id;
+        log = new MoveLog(id, positions, journal);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    MoveLog getLog() {
+        return log;
+    }
+
+    Set<WebSocketHandler> getMembers() {
+        return members;
+    }
+
+    // A free player slot goes to whoever joins next, everyone else watches.
+    // Holding the log lock keeps broadcasts from reaching the client before its role and its snapshot,
+    // so it gets the position in one frame and then every move after it, none missed and none twice.
+    synchronized void join(WebSocketHandler client) {
+        Role role = Role.SPECTATOR;
+        if (white == null) {
+            white = client;
+            role = Role.WHITE;
+        } else if (black == null) {
+            black = client;
+            role = Role.BLACK;
+        }
+
+        synchronized (log) {
+            client.setRole(role);
+            if (!log.isEmpty()) {
+                client.sendShared(snapshot(client));
+                if (log.status() != Status.ONGOING) client.sendEnd(log.status(), log.winner());
+            }
+            members.add(client);
+        }
+    }
+
+    // The snapshot frame for this client's variant, built on the first request after a move.
+    // A burst of joiners costs one encoding per variant, not one per joiner. Call with the log lock held.
+    ByteBuffer snapshot(WebSocketHandler client) {
+        if (snapshotPly != log.size()) {
+            Arrays.fill(snapshots, null);
+            snapshotPly = log.size();
+        }
+
+        int variant = client.variant();
+        if (snapshots[variant] == null) {
+            ByteBuffer frame = client.isBinary()
+                ? client.encode(log.binarySnapshot(), FrameType.BINARY)
+                : client.encode(log.snapshot().getBytes(StandardCharsets.UTF_8), FrameType.TEXT);
+            snapshots[variant] = frame.asReadOnlyBuffer();
+        }
+        return snapshots[variant];
+    }
+
+    synchronized void leave(WebSocketHandler client) {
+        members.remove(client);
+        if (white == client) white = null;
+        if (black == client) black = null;
+    }
+
+    // Dropped once empty unless a game is in progress, which stays for reconnects. A finished game lives on
+    // in the journal, and whoever joins the id next starts a new game in a new room.
+    synchronized boolean isDisposable() {
+        return members.isEmpty() && (log.isEmpty() || log.status() != Status.ONGOING);
+    }
+
+    // The move just played, called with the log lock held. Binary clients that would get it uncompressed
+    // share one pooled frame, nothing else is built unless some member needs it: the text form and
+    // frames for other variants are made on first use.
+    void broadcastMove(int ply, int move) {
+        SharedBuffer plain = null;
+        ByteBuffer[] frames = null;
+        for (WebSocketHandler client : members) {
+            if (client.takesPlain(BinaryProtocol.MOVE_LENGTH)) {
+                if (plain == null) plain = BinaryProtocol.moveFrame(ply, move);
+                client.sendShared(plain);
+                continue;
+            }
+
+            if (frames == null) frames = new ByteBuffer[4];
+            int variant = client.variant();
+            if (frames[variant] == null) {
+                frames[variant] = client.isBinary()
+                    ? client.encode(BinaryProtocol.move(ply, move), FrameType.BINARY).asReadOnlyBuffer()
+                    : client.encode(("move:" + Move.toUci(move) + ":" + log.next()).getBytes(StandardCharsets.UTF_8),
+                        FrameType.TEXT).asReadOnlyBuffer();
+            }
+            client.sendShared(frames[variant]);
+        }
+        if (plain != null) plain.release();
+    }
+
+    // Each frame is encoded at most once, every member queues a view of the same bytes on its own loop.
+    // Clients can differ in format (text or binary) and compression, each gets the variant it negotiated.
+    void broadcast(String text, byte[] binary) {
+        ByteBuffer[] frames = new ByteBuffer[4];
+        byte[] textBytes = null;
+        for (WebSocketHandler client : members) {
+            int variant = client.variant();
+            if (frames[variant] == null) {
+                if (client.isBinary()) {
+                    frames[variant] = client.encode(binary, FrameType.BINARY).asReadOnlyBuffer();
+                } else {
+                    if (textBytes == null) textBytes = text.getBytes(StandardCharsets.UTF_8);
+                    frames[variant] = client.encode(textBytes, FrameType.TEXT).asReadOnlyBuffer();
+                }
+            }
+            client.sendShared(frames[variant]);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package server.websocket;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import server.chess.Board.Status;
+import server.chess.PositionCache;
+import server.journal.Journal;
+
+// Rooms by game id. Joins and leaves go through compute() so they are atomic per id,
+// which only locks that id's bin of the map.
+class RoomRegistry implements Journal.Replayer {
+    final private static Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    final private ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    // Shared by every game, positions reached from common openings are worked out once
+    final private PositionCache positions = new PositionCache(1 << 16);
+    // Null when games are not journaled
+    final private Journal journal;
+
+    RoomRegistry(Journal journal) {
+        this.journal = journal;
+    }
+
+    static boolean isValidId(String id) {
+        return VALID_ID.matcher(id).matches();
+    }
+
+    Room join(String id, WebSocketHandler client) {
+        return rooms.compute(id, (key, room) -> {
+            if (room == null) room = new Room(key, positions, journal);
+            room.join(client);
+            return room;
+        });
+    }
+
+    // Journal replay on startup, rooms come back with their games and no members.
+    // The first move of a new game under an id whose game is over replaces it.
+    public void onMove(String id, long game, int ply, int move, long time) {
+        Room room = rooms.compute(id, (key, current) -> {
+            if (current == null) return new Room(key, positions, journal);
+            MoveLog log = current.getLog();
+            if (ply == 0 && game != log.gameKey() && log.status() != Status.ONGOING) return new Room(key, positions, journal);
+            return current;
+        });
+        room.getLog().replay(game, ply, move, time);
+    }
+
+    // After replay, finished games are only kept in the journal
+    void dropFinished() {
+        rooms.values().removeIf(Room::isDisposable);
+    }
+
+    void leave(Room room, WebSocketHandler client) {
+        rooms.computeIfPresent(room.getId(), (key, current) -> {
+            current.leave(client);
+            return current.isDisposable() ? null : current;
+        });
+    }
+
+    Room get(String id) {
+        return rooms.get(id);
+    }
+
+    Collection<Room> all() {
+        return rooms.values();
+    }
+
+    PositionCache positions() {
+        return positions;
+    }
+
+    int size() {
+        return rooms.size();
+    }
+}
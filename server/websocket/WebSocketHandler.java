@@ -1,137 +1,196 @@
 package server.websocket;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 import java.util.Base64;
-import java.util.Scanner;
+import java.util.zip.DataFormatException;
 
+import server.chess.Board.Status;
+import server.chess.Move;
 import server.http.Request;
+import server.log.Log;
+import server.metrics.Counter;
+import server.metrics.Histogram;
+import server.metrics.Metrics;
+import server.reactor.BufferPool;
+import server.reactor.Connection;
+import server.reactor.Handler;
+import server.reactor.Outbound;
+import server.reactor.PooledBuffer;
+import server.reactor.SharedBuffer;
 import server.websocket.Enums.FrameType;
-import server.websocket.Enums.Role;;
+import server.websocket.Enums.Role;
+import server.websocket.Enums.SlowConsumerPolicy;
 
 
-public class WebSocketHandler implements Runnable {
-    final private Socket socket;
-    final private InputStream in;
-    final private OutputStream out;
-    final private Scanner s;
-    final private int clientId;
-    private WebSocketHandler[] clients;
+public class WebSocketHandler implements Handler, FrameDecoder.Listener {
+    final private static int MAX_MESSAGE = 1024 * 1024;
+    final private static Counter FRAMES_SENT = Metrics.counter("jess_websocket_frames_sent_total", "Websocket frames queued to clients");
+    final private static Histogram MOVE_LATENCY = Metrics.histogram("jess_move_broadcast_seconds",
+        "From a move's message being received to its broadcast being queued to the whole room");
 
-    private boolean running = true;
+    final private int clientId;
+    final private RoomRegistry rooms;
+    private Room room;
+    final private SlowConsumerPolicy policy;
+    final private int queueLimit;
+    // Messages at least this long are compressed when the client negotiated it, negative turns it off
+    final private int compressThreshold;
+    private Connection conn;
+    private volatile boolean stale = false;
+    private volatile long dropped = 0;
+
+    final private FrameDecoder decoder = new FrameDecoder(MAX_MESSAGE);
+    private volatile boolean upgraded = false;
+    // Negotiated the binary subprotocol, everything sent to this client is binary
+    private boolean binary = false;
+    private PerMessageDeflate deflate;
+    private volatile boolean running = true;
+    // When the message being handled was received
+    private long received;
 
     private Role role;
 
 
-    public WebSocketHandler(Socket client, int id, WebSocketHandler[] clients) throws IOException {
-        socket = client;
-        in =  socket.getInputStream();
-        out = socket.getOutputStream();
-        s = new Scanner(in, "UTF-8");
+    public WebSocketHandler(int id, RoomRegistry rooms, SlowConsumerPolicy policy, int queueLimit, int compressThreshold) {
         clientId = id;
-        this.clients = clients;
+        this.rooms = rooms;
+        this.policy = policy;
+        this.queueLimit = queueLimit;
+        this.compressThreshold = compressThreshold;
     }
 
-    public void run() {
-        try {
-            handleReq();
+    public void onRead(Connection conn, ByteBuffer in) throws IOException {
+        this.conn = conn;
+
+        if (running) {
+            decoder.decode(in, this);
         }
-        catch(IOException e) {
-            System.out.println("handleReq() IOException");
-        } catch(NoSuchAlgorithmException e) {
-            System.out.println("handleReq() NoSuchAlgorithmException");
+        if (!running) {
+            // Anything after a close or a protocol error is dropped
+            in.position(in.limit());
         }
     }
 
-    private void handleReq() throws IOException, NoSuchAlgorithmException {
-        String data = s.useDelimiter("\\r\\n\\r\\n").next();
-        Request req = new Request(data);
-        if (in.available() > 0) {
-            req.setBody(in.readAllBytes());
-        }
+    public void onClose(Connection conn) {
+        running = false;
+        if (room != null) rooms.leave(room, this);
+        if (deflate != null) deflate.end();
+    }
 
-        // System.out.println("clientId: " + clientId);
+    // Takes over a connection whose upgrade request the HTTP server already parsed, from inside its onRead.
+    // The request is read in place, frames that follow it in the same read come to onRead next.
+    // The upgrade route has checked the Sec-WebSocket-Key and the game id.
+    public void open(Connection conn, Request req, String gameId) {
+        this.conn = conn;
         try {
-            if ("/game".equals(req.uri)) {
-                // System.out.println("request head: " + req.showHead());
-                String socketKey = req.get("Sec-WebSocket-Key");
-                // System.out.println(socketKey);
-                if (socketKey != null) {
-                    handshake(socketKey);
-                }
-
-                // Setup client
-                if (clientId < 3) {
-                    role = clientId == 1 ? Role.WHITE : Role.BLACK;
-                    // send("role:" + role);
-                } else {
-                    role = Role.SPECTATOR;
-                }
-                send("role:" + role.getValue());
-
-                while (running) {
-                    String message = recv();
-
-                    if (!message.isEmpty() && running) {
-                        handleMessage(message);
-                    }
-                }
+            binary = req.contains("Sec-WebSocket-Protocol", BinaryProtocol.NAME);
+            String extensions = req.get("Sec-WebSocket-Extensions");
+            if (extensions != null && compressThreshold >= 0) {
+                deflate = PerMessageDeflate.negotiate(extensions, compressThreshold);
+                decoder.allowCompressed(deflate != null);
             }
-        } finally {
-            s.close();
+            handshake(req.get("Sec-WebSocket-Key"));
+        } catch(NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            Log.error("Could not answer the websocket handshake: {}", e.getClass().getSimpleName());
+            conn.close();
+            return;
         }
+        conn.setLimit(queueLimit);
+        conn.keepWhenIdle();
+        upgraded = true;
+
+        // Setup client, the room hands out the role through setRole
+        room = rooms.join(gameId, this);
     }
 
+    // Called by the room while it holds the log lock, so the role arrives before any move
+    void setRole(Role role) {
+        this.role = role;
+        if (binary) {
+            send(BinaryProtocol.role(role));
+        } else {
+            send("role:" + role.getValue());
+        }
+    }
+
+    // Text protocol: move:<uci>
     public void handleMessage(String msg) {
-        System.out.println("recieved message: " + msg);
-        String next;
-        switch (role) {
-            case WHITE:
-                next = "black";
-                break;
-            case BLACK:
-                next = "white";
-                break;
-            case null, default:
+        // Checked first so clientId is not boxed on every message with debug off
+        if (Log.isEnabled(Log.Level.DEBUG)) Log.debug("clientId: {} received message: {}", clientId, msg);
+        if (role == null || role == Role.SPECTATOR) return;
+        if (!msg.startsWith("move:")) {
+            sendError(BinaryProtocol.ERROR_UNKNOWN, "unknown");
+            return;
+        }
+        play(-1, Move.parse(msg.substring(5)), msg.substring(5));
+    }
+
+    // Binary protocol, read straight out of the decoder's buffer
+    private void handleBinary(ByteBuffer payload) {
+        if (role == null || role == Role.SPECTATOR) return;
+        if (!BinaryProtocol.isMove(payload)) {
+            sendError(BinaryProtocol.ERROR_UNKNOWN, "unknown");
+            return;
+        }
+        play(BinaryProtocol.ply(payload), BinaryProtocol.move(payload), null);
+    }
+
+    // The room's board is the authority, a move only goes out once it is legal and it is the sender's turn.
+    // A ply of -1 skips the sequence check, text clients do not send one.
+    private void play(int ply, int move, String text) {
+        MoveLog log = room.getLog();
+        synchronized (log) {
+            if (log.status() != Status.ONGOING) {
+                sendError(BinaryProtocol.ERROR_OVER, "over");
+                return;
+            }
+            if (log.turn() != role) {
+                sendError(BinaryProtocol.ERROR_TURN, "turn");
                 return;
+            }
+            if (ply >= 0 && ply != log.size()) {
+                sendError(BinaryProtocol.ERROR_SEQUENCE, "sequence");
+                return;
+            }
+            if (!log.play(move)) {
+                sendError(BinaryProtocol.ERROR_ILLEGAL, "illegal:" + (text != null ? text : Move.toUci(move)));
+                return;
+            }
+
+            room.broadcastMove(log.size() - 1, move);
+            Status status = log.status();
+            if (status != Status.ONGOING) {
+                brodcast(endMessage(status, log.winner()), BinaryProtocol.end(status, log.winner()));
+            }
+            MOVE_LATENCY.recordSince(received);
         }
-        brodcast(msg + ":" + next);
     }
 
     public void stop() {
         // Maybe send closing frame?
         running = false;
-        // s.close();
-        // socket.close();
+        if (conn != null) conn.close();
     }
 
     private void handshake(String clientKey) throws NoSuchAlgorithmException, UnsupportedEncodingException {
         byte[] response = ("HTTP/1.1 101 Switching Protocols\r\n"
             + "Connection: Upgrade\r\n"
             + "Upgrade: websocket\r\n"
+            + (binary ? "Sec-WebSocket-Protocol: " + BinaryProtocol.NAME + "\r\n" : "")
+            + (deflate != null ? "Sec-WebSocket-Extensions: " + deflate.response() + "\r\n" : "")
             + "Sec-WebSocket-Accept: "
             + generateAcceptKey(clientKey)
             + "\r\n\r\n").getBytes("UTF-8");
 
-        try {
-            out.write(response, 0, response.length); 
-        } catch (IOException e) {
-            System.out.println("clientId:" + clientId + " Could not complete hanshake: write failed");
-            System.out.println(e);
-            running = false;
-            s.close();
-
-        }
+        conn.send(ByteBuffer.wrap(response));
     }
 
-    private String generateAcceptKey(String clientKey) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    static String generateAcceptKey(String clientKey) throws NoSuchAlgorithmException, UnsupportedEncodingException {
         byte[] keyBytes = (clientKey + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes("UTF-8");
         byte[] keySha1 = MessageDigest.getInstance("SHA-1").digest(keyBytes);
         var e = Base64.getEncoder();
@@ -139,84 +198,215 @@ public class WebSocketHandler implements Runnable {
         return e.encodeToString(keySha1);
     }
 
+    // Queued on the client's own event loop, so a slow client does not block the caller
     public void send(String msg) {
-        Frame outFrame = new Frame(msg, FrameType.TEXT, false);
-        try {
-            out.write(outFrame.getBytes()); 
-        } catch (IOException e) {
-            System.out.println("Could not send message: write failed");
-            System.out.println(e);
+        if (conn == null || !upgraded) return;
+        conn.send(pooled(frame(msg.getBytes(StandardCharsets.UTF_8), FrameType.TEXT)));
+        FRAMES_SENT.inc();
+    }
+
+    public void send(byte[] msg) {
+        if (conn == null || !upgraded) return;
+        conn.send(pooled(frame(msg, FrameType.BINARY)));
+        FRAMES_SENT.inc();
+    }
+
+    // The frame this client gets for a message, deflated if it negotiated that and the message is long enough.
+    // Broadcasts share these between clients, so they stay on the heap for the GC to reclaim.
+    ByteBuffer encode(byte[] payload, FrameType type) {
+        return ByteBuffer.wrap(frame(payload, type).getBytes());
+    }
+
+    private Frame frame(byte[] payload, FrameType type) {
+        if (deflate != null && deflate.shouldCompress(payload.length)) {
+            byte[] compressed = deflate.compress(payload);
+            if (compressed != null) return new Frame(compressed, type, false, true);
+        }
+        return new Frame(payload, type, false);
+    }
+
+    // Frames for this client alone are encoded into a pooled direct buffer, which goes back once written
+    private static PooledBuffer pooled(Frame frame) {
+        ByteBuffer buf = BufferPool.acquire(frame.size());
+        frame.writeTo(buf);
+        return new PooledBuffer(buf.flip());
+    }
+
+    // Clients with the same variant get byte for byte the same frames
+    int variant() {
+        return (binary ? 1 : 0) | (deflate != null ? 2 : 0);
+    }
+
+    // Only the members of this client's room get the message
+    public void brodcast(String text, byte[] binary) {
+        room.broadcast(text, binary);
+    }
+
+    // end:<result>, with :<winner> after a mate
+    private static String endMessage(Status status, Role winner) {
+        return "end:" + status.getValue() + (winner != null ? ":" + winner.getValue() : "");
+    }
+
+    void sendEnd(Status status, Role winner) {
+        if (binary) {
+            send(BinaryProtocol.end(status, winner));
+        } else {
+            send(endMessage(status, winner));
         }
     }
 
-    public void brodcast(String msg) {
-        for (WebSocketHandler client: clients) {
-            if (client != null) client.send(msg);
+    boolean isBinary() {
+        return binary;
+    }
+
+    // A binary client that gets a message of this length as a plain frame, not deflated
+    boolean takesPlain(int length) {
+        return binary && (deflate == null || !deflate.shouldCompress(length));
+    }
+
+    private void sendError(byte code, String text) {
+        if (binary) {
+            send(BinaryProtocol.error(code));
+        } else {
+            send("error:" + text);
         }
     }
 
-    private String recv() {
-        int size = 1024;
-        byte[] encoded = new byte[size];
-    
-        try {
-            in.read(encoded);
-        } catch (IOException e) {
-            System.out.println("Could not read from websocket");
-            System.err.println(e);
+    // Never blocks the broadcaster, a client whose queue is full is handled by the policy
+    void sendShared(ByteBuffer frame) {
+        if (!canShare()) return;
+        if (conn.offer(frame.duplicate())) {
+            FRAMES_SENT.inc();
+        } else {
+            refused();
+        }
+    }
+
+    // A pooled frame every member queues a view of
+    void sendShared(SharedBuffer frame) {
+        if (!canShare()) return;
+        Outbound view = frame.view();
+        if (conn.offer(view)) {
+            FRAMES_SENT.inc();
+        } else {
+            view.release();
+            refused();
+        }
+    }
+
+    private boolean canShare() {
+        if (conn == null || !upgraded) return false;
+        if (stale) {
+            dropped++;
+            return false;
+        }
+        return true;
+    }
+
+    // The queue was full, what happens next is up to the policy
+    private void refused() {
+        dropped++;
+        if (policy == SlowConsumerPolicy.RESYNC) {
+            stale = true;
+            conn.notifyWhenDrained();
+        } else {
             running = false;
-            s.close();
+            conn.abort(ByteBuffer.wrap(closeFrame(policy.getCloseCode(), "Client too slow")));
+            FRAMES_SENT.inc();
+        }
+    }
+
+    public void onDrained(Connection conn) {
+        MoveLog log = room.getLog();
+        synchronized (log) {
+            if (!stale) return;
+            stale = false;
+            conn.send(room.snapshot(this).duplicate());
+            FRAMES_SENT.inc();
+        }
+    }
+
+    public int queued() {
+        return conn == null ? 0 : conn.queued();
+    }
+
+    public int maxQueued() {
+        return conn == null ? 0 : conn.maxQueued();
+    }
+
+    public long dropped() {
+        return dropped;
+    }
+
+    public void onMessage(FrameType type, ByteBuffer payload, boolean compressed) {
+        if (!running) return;
+        received = System.nanoTime();
+        if (compressed) {
+            try {
+                payload = deflate.decompress(payload, MAX_MESSAGE);
+            } catch (DataFormatException e) {
+                onError(1007, "Invalid compressed data");
+                return;
+            }
+            if (payload == null) {
+                onError(1009, "Message too big");
+                return;
+            }
+        }
+        if (type == FrameType.BINARY) {
+            if (binary) handleBinary(payload);
+            return;
         }
-        Frame inFrame = new Frame(encoded);
 
-        switch (inFrame.getType()) {
+        String message = StandardCharsets.UTF_8.decode(payload).toString();
+        if (!message.isEmpty()) {
+            handleMessage(message);
+        }
+    }
+
+    public void onControl(FrameType type, ByteBuffer payload) {
+        switch (type) {
             case CLOSE:
-                // TODO: Handle close code decoding
-                // int code = ByteBuffer.allocate(8).put(bMsg).getInt();
-                // System.out.println("clientId: " + clientId);
-                // System.out.println("close code: %02X %02X".formatted(bMsg[0], bMsg[1]));
-                handleCloseFrame();
+                int code = payload.remaining() >= 2 ? Short.toUnsignedInt(payload.getShort(payload.position())) : 1000;
+                handleCloseFrame(code);
                 break;
 
             case PING:
-                sendControlFrame(FrameType.PONG);
-                break;
-
-            case TEXT, BINARY, CONTINUATION, PONG:
+                sendControlFrame(FrameType.PONG, payload);
                 break;
 
             case null, default:
-                System.err.println("Wrong optcode");
-                sendCloseFrame(1002);
                 break;
         }
-        
-        return inFrame.showMessage();
     }
 
-    private void handleCloseFrame() {
-        sendCloseFrame(1000);
+    public void onError(int code, String reason) {
+        Log.info("clientId: {} protocol error: {}", clientId, reason);
+        sendCloseFrame(code, reason);
     }
 
-    private void sendCloseFrame(int code) {
-        byte[] bCode = ByteBuffer.allocate(4).putInt(code).array();
-        byte[] resp = new byte[4];
+    private void handleCloseFrame(int code) {
+        sendCloseFrame(code);
+    }
 
-        resp[0] = (byte) (128 | FrameType.CLOSE.getCode());
-        resp[1] = 2;
-        resp[2] = bCode[2];
-        resp[3] = bCode[3];
+    private void sendCloseFrame(int code) {
+        ByteBuffer resp = BufferPool.acquire(4);
+        resp.put((byte) (128 | FrameType.CLOSE.getCode())).put((byte) 2).putShort((short) code);
 
-        try {
-            out.write(resp);
-            running = false;
-            s.close();
-        } catch (IOException e) {
-            System.out.println("something went wrong");
-        }
+        running = false;
+        conn.send(new PooledBuffer(resp.flip()));
+        FRAMES_SENT.inc();
+        conn.closeAfterFlush();
     }
 
     private void sendCloseFrame(int code, String reason) {
+        running = false;
+        conn.send(ByteBuffer.wrap(closeFrame(code, reason)));
+        FRAMES_SENT.inc();
+        conn.closeAfterFlush();
+    }
+
+    private byte[] closeFrame(int code, String reason) {
         byte[] bCode = ByteBuffer.allocate(4).putInt(code).array();
         byte[] payload = ("  " + reason).getBytes(); 
         payload[0] = bCode[2];
@@ -230,44 +420,16 @@ public class WebSocketHandler implements Runnable {
             resp[i + 2] = payload[i];
         }
 
-        try {
-            out.write(resp);
-            running = false;
-            s.close();
-        } catch (IOException e) {
-            System.out.println("something went wrong");
-        }
-    }
-
-    private void sendControlFrame(FrameType type) {
-        byte[] resp = new byte[2];
-
-        resp[0] = (byte) (128 | type.getCode());
-        resp[1] = 0;
-
-        try {
-            out.write(resp);
-        } catch (IOException e) {
-            System.out.println("something went wrong");
-        }
+        return resp;
     }
 
-    private void sendControlFrame(FrameType type, String msg) {
-        byte[] bMsg = msg.getBytes();
-        byte[] resp = new byte[bMsg.length + 2];
+    private void sendControlFrame(FrameType type, ByteBuffer payload) {
+        ByteBuffer resp = BufferPool.acquire(payload.remaining() + 2);
+        resp.put((byte) (128 | type.getCode())).put((byte) payload.remaining());
+        resp.put(payload.duplicate());
 
-        resp[0] = (byte) (128 | type.getCode());
-        resp[1] = (byte) bMsg.length;
-
-        for (int i = 0; i < bMsg.length; i++) {
-            resp[i + 2] = bMsg[i];
-        }
-
-        try {
-            out.write(resp);
-        } catch (IOException e) {
-            System.out.println("something went wrong");
-        }
+        conn.send(new PooledBuffer(resp.flip()));
+        FRAMES_SENT.inc();
     }
 
 }
@@ -1,64 +1,161 @@
 package server.websocket;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import server.http.GameExport;
+import server.http.Router;
+import server.journal.Journal;
+import server.log.Log;
+import server.metrics.Metrics;
+import server.websocket.Enums.SlowConsumerPolicy;
 
-public class WebSocketServer implements Runnable {
-    int port;
-    ServerSocket server;
-    private int clientNum = 0;
-    private int capacity = 10;
 
-    public WebSocketHandler[] clients = new WebSocketHandler[capacity];
-    public Thread[] tarray = new Thread[capacity];
+// The games. Clients arrive through an HttpServer given upgrade(), which also serves export().
+public class WebSocketServer {
+    final private static byte[] UPGRADE_REQUIRED = ("HTTP/1.1 426 Upgrade Required\r\nConnection: Keep-Alive\r\n"
+        + "Upgrade: websocket\r\nContent-Length: 0\r\n\r\n").getBytes();
+    final private static byte[] NOT_FOUND = "HTTP/1.1 404 Not Found\r\nConnection: Keep-Alive\r\nContent-Length: 0\r\n\r\n".getBytes();
 
-    public WebSocketServer(int port) throws IOException {
-        this.port = port;
-        server = new ServerSocket(port);
+    final private AtomicInteger clientNum = new AtomicInteger();
+    final private RoomRegistry rooms;
+    // Null when games are not journaled
+    final private Journal journal;
+    final private SlowConsumerPolicy policy;
+    final private int queueLimit;
+    final private int compressThreshold;
+
+    public static class Options {
+        private Path journalDir = null;
+        private SlowConsumerPolicy policy = SlowConsumerPolicy.RESYNC;
+        private int queueLimit = 256;
+        private int compressThreshold = 256;
+
+        // Games are journaled to journalDir and replayed from it on startup, null keeps them in memory only
+        public Options journal(Path journalDir) {
+            this.journalDir = journalDir;
+            return this;
+        }
+
+        // What happens to a client whose queue holds more than queueLimit frames
+        public Options slowConsumers(SlowConsumerPolicy policy, int queueLimit) {
+            this.policy = policy;
+            this.queueLimit = queueLimit;
+            return this;
+        }
+
+        // Shorter messages are not worth deflating, moves stay plain and snapshots get compressed.
+        // A negative threshold turns permessage-deflate off.
+        public Options compressThreshold(int compressThreshold) {
+            this.compressThreshold = compressThreshold;
+            return this;
+        }
+    }
+
+    public WebSocketServer(Options options) throws IOException {
+        this.policy = options.policy;
+        this.queueLimit = options.queueLimit;
+        this.compressThreshold = options.compressThreshold;
+
+        journal = options.journalDir != null ? new Journal(options.journalDir) : null;
+        rooms = new RoomRegistry(journal);
+        if (journal != null) {
+            journal.replay(rooms);
+            rooms.dropFinished();
+            journal.start();
+            Log.info("Restored {} games in progress from {}", rooms.size(), options.journalDir);
+        }
     }
 
-    public void run(){
-        // ServerSocket 
-        System.out.println("Server has started on 127.0.0.1:" + port + ".\r\nWaiting for a connection…");
-
-        try {
-            while (true) {
-                    Socket client = server.accept(); //TODO: Monitor capacity
-                    // System.out.println("A client connected.");
-
-                    try {
-                        clientNum++;
-                        clients[clientNum - 1] = new WebSocketHandler(client, clientNum, clients);
-                        Thread websocket = new Thread(clients[clientNum - 1]);
-                        websocket.setName("websocket-" + clientNum);
-                        websocket.start();
-                        tarray[clientNum - 1] = websocket;
-                    } catch (IllegalThreadStateException e) {
-                        clientNum--;
-                        System.out.println("Could not start a new thread for WebSocketHandler");
-                    } catch (IOException e) {
-                        clientNum--;
-                        System.out.println("Could not start a new WebSocketHandler");
-                    }
-
-                }
-            } catch(IOException e) {
-                System.out.println("Could not accept a websocket client");
-            } finally {
-                    // server.stop();
+    // Gauges and totals for /metrics, done by whoever serves this server's clients
+    public void registerMetrics() {
+        Metrics.gauge("jess_active_rooms", "Rooms with a game", this::activeRooms);
+        Metrics.gauge("jess_websocket_queued_frames", "Frames waiting in all client queues", this::totalQueued);
+        Metrics.gauge("jess_websocket_max_queue_depth", "Deepest any live client's queue has been", this::maxQueued);
+        Metrics.gauge("jess_websocket_dropped_frames", "Broadcast frames dropped for slow clients still connected",
+            this::droppedFrames);
+        Metrics.counter("jess_websocket_clients_total", "", "Websocket clients accepted", clientNum::get);
+        Metrics.counter("jess_position_cache_hits_total", "", "Positions found in the shared cache",
+            this::positionCacheHits);
+        Metrics.counter("jess_position_cache_misses_total", "", "Positions computed and added to the shared cache",
+            this::positionCacheMisses);
+    }
+
+    // Runs on the thread serving the upgraded connection
+    private WebSocketHandler newClient() {
+        return new WebSocketHandler(clientNum.incrementAndGet(), rooms, policy, queueLimit, compressThreshold);
+    }
+
+    // HTTP route for /game and /game/{id}: a websocket upgrade takes over the connection,
+    // any other request gets 426
+    public Router.Route upgrade() {
+        return (conn, req, params) -> {
+            if (!req.contains("Upgrade", "websocket") || req.get("Sec-WebSocket-Key") == null) {
+                conn.send(ByteBuffer.wrap(UPGRADE_REQUIRED));
+                return;
+            }
+            String id = params.get("id");
+            if (id == null) id = "default";
+            if (!RoomRegistry.isValidId(id)) {
+                conn.send(ByteBuffer.wrap(NOT_FOUND));
+                return;
             }
+
+            WebSocketHandler client = newClient();
+            conn.upgrade(client);
+            client.open(conn, req, id);
+        };
+    }
+
+    // Games for the HTTP server's /games endpoints
+    public GameExport export() {
+        return new PgnExport(rooms, journal);
+    }
+
+    public int activeRooms() {
+        return rooms.size();
+    }
+
+    public long positionCacheHits() {
+        return rooms.positions().hits();
+    }
+
+    public long positionCacheMisses() {
+        return rooms.positions().misses();
+    }
+
+    // Frames waiting in all outbound queues right now
+    public int totalQueued() {
+        int total = 0;
+        for (Room room : rooms.all()) {
+            for (WebSocketHandler client : room.getMembers()) total += client.queued();
         }
+        return total;
+    }
+
+    // Deepest any single outbound queue has been
+    public int maxQueued() {
+        int max = 0;
+        for (Room room : rooms.all()) {
+            for (WebSocketHandler client : room.getMembers()) max = Math.max(max, client.maxQueued());
+        }
+        return max;
+    }
+
+    public long droppedFrames() {
+        long dropped = 0;
+        for (Room room : rooms.all()) {
+            for (WebSocketHandler client : room.getMembers()) dropped += client.dropped();
+        }
+        return dropped;
+    }
         
-    public void stop() {
-        for (int i = 0; i < capacity; i++) {
-            if (clients[i] != null) clients[i].stop();
-            if (tarray[i] != null) {
-                try {
-                    tarray[i].join();
-                }catch (InterruptedException e) {}
-            }
+    public void stop() throws IOException {
+        for (Room room : rooms.all()) {
+            for (WebSocketHandler client : room.getMembers()) client.stop();
         }
+        if (journal != null) journal.stop();
     }
-}
\ No newline at end of file
+}
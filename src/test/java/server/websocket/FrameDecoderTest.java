@@ -0,0 +1,110 @@
+package server.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import server.websocket.Enums.FrameType;
+
+class FrameDecoderTest {
+    final private static int KEY = 0x1A2B3C4D;
+
+    private static class Collect implements FrameDecoder.Listener {
+        final List<byte[]> messages = new ArrayList<>();
+        final List<FrameType> types = new ArrayList<>();
+
+        public void onMessage(FrameType type, ByteBuffer payload, boolean compressed) {
+            add(type, payload);
+        }
+
+        public void onControl(FrameType type, ByteBuffer payload) {
+            add(type, payload);
+        }
+
+        public void onError(int code, String reason) {
+            throw new AssertionError(code + " " + reason);
+        }
+
+        private void add(FrameType type, ByteBuffer payload) {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            messages.add(bytes);
+            types.add(type);
+        }
+    }
+
+    // A masked client frame, opcode 1 text, 2 binary, 0 continuation, 8 close
+    private static byte[] frame(int opcode, boolean fin, byte[] payload) {
+        ByteBuffer out = ByteBuffer.allocate(payload.length + 14);
+        out.put((byte) ((fin ? 0x80 : 0) | opcode));
+        if (payload.length < 126) {
+            out.put((byte) (0x80 | payload.length));
+        } else {
+            out.put((byte) (0x80 | 126)).putShort((short) payload.length);
+        }
+        out.putInt(KEY);
+        for (int i = 0; i < payload.length; i++) {
+            out.put((byte) (payload[i] ^ (KEY >>> (24 - (i & 3) * 8))));
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteBuffer out = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(p -> p.length).sum());
+        for (byte[] part : parts) out.put(part);
+        return out.array();
+    }
+
+    // Feeds bytes in reads of at most step bytes, keeping what was not consumed as a connection would
+    private static Collect decode(byte[] bytes, int step) {
+        Collect collect = new Collect();
+        FrameDecoder decoder = new FrameDecoder(1 << 20);
+        ByteBuffer in = ByteBuffer.allocateDirect(bytes.length);
+        for (int at = 0; at < bytes.length; at += step) {
+            in.put(bytes, at, Math.min(step, bytes.length - at)).flip();
+            decoder.decode(in, collect);
+            in.compact();
+        }
+        return collect;
+    }
+
+    @Test
+    void wholeAndSplitFramesGiveTheSameMessages() {
+        byte[] big = new byte[5000];
+        new Random(1).nextBytes(big);
+        byte[] stream = concat(
+            frame(1, true, "move:e2e4".getBytes()),
+            frame(2, true, big),
+            frame(2, false, new byte[] {1, 2, 3}),
+            frame(0, false, new byte[] {4, 5}),
+            frame(0, true, new byte[] {6, 7, 8, 9, 10}),
+            frame(8, true, new byte[] {0x03, (byte) 0xE8}));
+
+        for (int step : new int[] {stream.length, 1, 3, 7, 100}) {
+            Collect collect = decode(stream, step);
+            assertEquals(List.of(FrameType.TEXT, FrameType.BINARY, FrameType.BINARY, FrameType.CLOSE), collect.types,
+                "step " + step);
+            assertArrayEquals("move:e2e4".getBytes(), collect.messages.get(0));
+            assertArrayEquals(big, collect.messages.get(1));
+            assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, collect.messages.get(2));
+            assertArrayEquals(new byte[] {0x03, (byte) 0xE8}, collect.messages.get(3));
+        }
+    }
+
+    @Test
+    void leavesTheBufferPastAFrameHandledInPlace() {
+        byte[] stream = concat(frame(1, true, "abc".getBytes()), new byte[] {(byte) 0x81});
+        FrameDecoder decoder = new FrameDecoder(1024);
+        ByteBuffer in = ByteBuffer.wrap(stream);
+        decoder.decode(in, new Collect());
+        assertEquals(stream.length - 1, in.position());
+        assertEquals(stream.length, in.limit());
+    }
+}
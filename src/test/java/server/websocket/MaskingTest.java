@@ -0,0 +1,87 @@
+package server.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class MaskingTest {
+    final private static int KEY = 0x37FA213D;
+
+    // RFC 6455 5.3 as written: octet i XORed with octet (i mod 4) of the key
+    private static byte[] byteLoop(byte[] in, int pos, int len, int key, long offset) {
+        byte[] out = new byte[len];
+        for (int i = 0; i < len; i++) {
+            int k = (int) ((offset + i) & 3);
+            out[i] = (byte) (in[pos + i] ^ (key >>> (24 - k * 8)));
+        }
+        return out;
+    }
+
+    private static void check(ByteBuffer in, ByteBuffer out, byte[] bytes, int pos, int len, long offset) {
+        int start = out.position();
+        Masking.unmask(in, pos, out, len, KEY, offset);
+        assertEquals(start + len, out.position(), "position after len " + len);
+
+        byte[] actual = new byte[len];
+        out.get(start, actual);
+        assertArrayEquals(byteLoop(bytes, pos, len, KEY, offset), actual,
+                "len " + len + " pos " + pos + " offset " + offset);
+    }
+
+    @Test
+    void matchesByteLoop() {
+        byte[] bytes = new byte[64];
+        new Random(6455).nextBytes(bytes);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+
+        for (int len = 0; len <= 40; len++) {
+            for (int pos = 0; pos <= 9; pos++) {
+                for (long offset = 0; offset < 8; offset++) {
+                    check(in, ByteBuffer.allocate(64), bytes, pos, len, offset);
+                }
+            }
+        }
+    }
+
+    @Test
+    void matchesByteLoopInDirectBuffers() {
+        byte[] bytes = new byte[64];
+        new Random(5).nextBytes(bytes);
+        ByteBuffer in = ByteBuffer.allocateDirect(64).put(0, bytes);
+
+        for (int len = 0; len <= 40; len++) {
+            for (int pos = 0; pos <= 9; pos++) {
+                ByteBuffer out = ByteBuffer.allocateDirect(96).position(pos + 3);
+                check(in, out, bytes, pos, len, pos * 3L);
+            }
+        }
+    }
+
+    @Test
+    void carriesOnAcrossSplitReads() {
+        byte[] bytes = new byte[53];
+        new Random(53).nextBytes(bytes);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        ByteBuffer out = ByteBuffer.allocate(53);
+
+        // A frame read in pieces of 7, 13 and 33 bytes
+        Masking.unmask(in, 0, out, 7, KEY, 0);
+        Masking.unmask(in, 7, out, 13, KEY, 7);
+        Masking.unmask(in, 20, out, 33, KEY, 20);
+        assertArrayEquals(byteLoop(bytes, 0, 53, KEY, 0), out.array());
+    }
+
+    @Test
+    void unmasksTwiceToTheOriginal() {
+        byte[] bytes = "Hello, masked world".getBytes();
+        ByteBuffer masked = ByteBuffer.allocate(bytes.length);
+        Masking.unmask(ByteBuffer.wrap(bytes), 0, masked, bytes.length, KEY, 1);
+        ByteBuffer plain = ByteBuffer.allocate(bytes.length);
+        Masking.unmask(masked, 0, plain, bytes.length, KEY, 1);
+        assertArrayEquals(bytes, plain.array());
+    }
+}